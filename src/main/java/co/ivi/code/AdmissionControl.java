@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Admission control of the evaluations: the number of concurrent
+ * evaluations is capped, and the requests over the cap wait in a bounded
+ * queue, in arrival order, until the queue timeout.  Requests that find
+ * the queue full, or time out, are rejected right away rather than
+ * holding a request thread.
+ * <p>
+ * The admitted evaluations run on virtual threads: an evaluation mostly
+ * waits for its agent, and should not hold a platform thread meanwhile.
+ */
+@Component
+public class AdmissionControl implements Closeable {
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int maxQueued;
+    private final long queueTimeout;
+    private final Duration retryAfter;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("evaluation-", 0).factory());
+
+    private final Counter full;
+    private final Counter timeouts;
+
+    public AdmissionControl(
+            MeterRegistry registry,
+            @Value("${code.admission.max-concurrent:64}") int maxConcurrent,
+            @Value("${code.admission.max-queued:128}") int maxQueued,
+            @Value("${code.admission.queue-timeout:10s}") Duration queueTimeout,
+            @Value("${code.admission.retry-after:5s}") Duration retryAfter) {
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.queueTimeout = queueTimeout.toNanos();
+        this.retryAfter = retryAfter;
+
+        this.full = registry.counter("code.admission.rejections", "cause", "full");
+        this.timeouts = registry.counter("code.admission.rejections", "cause", "timeout");
+        registry.gauge("code.admission.queued", queued, AtomicInteger::get);
+        registry.gauge("code.admission.active", permits,
+                p -> Math.max(1, maxConcurrent) - p.availablePermits());
+    }
+
+    /**
+     * Run the task once admitted.
+     *
+     * @throws RejectedException if the queue is full, or the task waited
+     *         in the queue for longer than the queue timeout
+     */
+    <T> T admit(Supplier<T> task) {
+        return run(task, reserve());
+    }
+
+    /**
+     * Run the task on a virtual thread once admitted.  The task is rejected
+     * on the calling thread if the queue is full; the future completes
+     * with a {@link RejectedException} if the task times out in the queue.
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        boolean admitted = reserve();
+        try {
+            return CompletableFuture.supplyAsync(() -> run(task, admitted), executor);
+        } catch (RejectedExecutionException ree) {
+            // Shutting down
+            if (admitted) {
+                permits.release();
+            } else {
+                queued.decrementAndGet();
+            }
+            throw new RejectedException(retryAfter);
+        }
+    }
+
+    // Take a permit, or a place in the queue; true if a permit was taken
+    private boolean reserve() {
+        // Honor the queue order, do not take a permit from waiting requests
+        try {
+            if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RejectedException(retryAfter);
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            full.increment();
+            throw new RejectedException(retryAfter);
+        }
+
+        return false;
+    }
+
+    private <T> T run(Supplier<T> task, boolean admitted) {
+        if (!admitted) {
+            await();
+        }
+
+        try {
+            return task.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Wait in the queue for a permit
+    private void await() {
+        try {
+            if (!permits.tryAcquire(queueTimeout, TimeUnit.NANOSECONDS)) {
+                timeouts.increment();
+                throw new RejectedException(retryAfter);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RejectedException(retryAfter);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * The evaluation was not admitted; the client may retry after the
+     * given delay.
+     */
+    static final class RejectedException extends RuntimeException {
+        private final Duration retryAfter;
+
+        RejectedException(Duration retryAfter) {
+            super("Too many evaluations, retry after " + retryAfter.toSeconds() + "s", null, false, false);
+            this.retryAfter = retryAfter;
+        }
+
+        Duration retryAfter() {
+            return retryAfter;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Evaluate the independent sources of a batch in parallel, each as a
+ * one-shot evaluation with a clean evaluator of its own.
+ * <p>
+ * Up to the parallelism limit of the sources of a batch are evaluated at
+ * a time.  Every source is admitted as a {@code /go} request is, so that
+ * batches do not crowd out the interactive sessions.
+ */
+@Component
+public class BatchEvaluation implements Closeable {
+    private final Service service;
+    private final AdmissionControl admissionControl;
+    private final int parallelism;
+    private final int maxSources;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("batch-", 0).factory());
+
+    public BatchEvaluation(Service service,
+                           AdmissionControl admissionControl,
+                           @Value("${code.batch.parallelism:8}") int parallelism,
+                           @Value("${code.batch.max-sources:500}") int maxSources) {
+        this.service = service;
+        this.admissionControl = admissionControl;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxSources = maxSources;
+    }
+
+    /**
+     * Evaluate the sources of a batch.  The cached results of cacheable
+     * sources are taken as they are, with no evaluation.
+     *
+     * @return the futures of the results, in the order of the sources
+     * @throws TooLargeException if there are more sources than allowed
+     */
+    Batch submit(List<String> sources, boolean cacheable) {
+        if (sources.size() > maxSources) {
+            throw new TooLargeException(maxSources);
+        }
+
+        Batch batch = new Batch(new Semaphore(parallelism), new ArrayList<>(sources.size()));
+        for (String source : sources) {
+            EvaluationResult cached = cacheable ? service.cachedResult(source) : null;
+            batch.results.add(cached != null ?
+                    CompletableFuture.completedFuture(cached) :
+                    CompletableFuture.supplyAsync(
+                            () -> batch.evaluate(source, cacheable), executor));
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The evaluations of a batch.
+     */
+    final class Batch {
+        private final Semaphore slots;
+        private final List<CompletableFuture<EvaluationResult>> results;
+        private volatile boolean abandoned = false;
+
+        private Batch(Semaphore slots, List<CompletableFuture<EvaluationResult>> results) {
+            this.slots = slots;
+            this.results = results;
+        }
+
+        /**
+         * The futures of the results, in the order of the sources.
+         */
+        List<CompletableFuture<EvaluationResult>> results() {
+            return results;
+        }
+
+        /**
+         * All the results, in the order of the sources, once complete.
+         */
+        CompletableFuture<List<EvaluationResult>> all() {
+            return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                    .thenApply(done -> results.stream()
+                            .map(CompletableFuture::join)
+                            .toList());
+        }
+
+        /**
+         * Do not evaluate the sources not started yet, as no one waits for
+         * their results any longer.
+         */
+        void abandon() {
+            abandoned = true;
+        }
+
+        private EvaluationResult evaluate(String source, boolean cacheable) {
+            try {
+                slots.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return new EvaluationResult(false, "Batch evaluation interrupted");
+            }
+
+            try {
+                if (abandoned) {
+                    return new EvaluationResult(false, "Batch evaluation abandoned");
+                }
+                return admissionControl.admit(() -> service.evaluateOnce(source, cacheable));
+            } catch (AdmissionControl.RejectedException ex) {
+                return new EvaluationResult(false, ex.getMessage());
+            } finally {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * The batch has more sources than allowed.
+     */
+    static final class TooLargeException extends RuntimeException {
+        TooLargeException(int maxSources) {
+            super("Too many sources, " + maxSources + " at most", null, false, false);
+        }
+    }
+}
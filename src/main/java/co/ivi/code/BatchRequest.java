@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import java.util.List;
+
+/**
+ * Independent sources, each evaluated in a session of its own.  The
+ * results of sources marked cacheable may be answered from the result
+ * cache.
+ */
+public record BatchRequest(List<String> sources, boolean cacheable) {
+    public BatchRequest {
+        sources = sources == null ? List.of() : sources;
+    }
+
+    public BatchRequest(List<String> sources) {
+        this(sources, false);
+    }
+}
@@ -0,0 +1,12 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+/**
+ * The result of the source at the index of a batch.
+ */
+public record BatchResult(int index, EvaluationResult result) {
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import co.ivi.code.exec.TrainingEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The training run of the class data sharing archives, see the cds build
+ * profile.
+ * <p>
+ * Once started, the server evaluates some representative snippets, with
+ * an agent VM that dumps its classes to the agent archive, and exits; the
+ * server VM dumps its own classes if run with -XX:ArchiveClassesAtExit.
+ */
+@Component
+@ConditionalOnProperty("code.evaluator.cds.training")
+public class CdsTraining implements ApplicationRunner {
+    // Snippets and commands covering the usual paths of the compiler and
+    // of the agent
+    private static final List<String> SNIPPETS = List.of(
+            "int i = 0;",
+            "i++;",
+            "String s = \"Hello\" + i;",
+            "System.out.println(s);",
+            "import java.util.*;",
+            "List<Integer> list = new ArrayList<>(List.of(3, 1, 2));",
+            "list.stream().map(n -> n * 2).sorted().toList();",
+            "record Point(int x, int y) {}",
+            "new Point(1, 2);",
+            "int square(int n) { return n * n; }",
+            "square(7);",
+            "class Counter { int count; void add() { count++; } }",
+            "var counter = new Counter(); counter.add(); counter.count",
+            "Object o = \"text\"; if (o instanceof String t) System.out.println(t.length());",
+            "throw new IllegalStateException(\"training\");",
+            "int broken = ;",
+            "/vars",
+            "/methods",
+            "/types",
+            "/imports",
+            "/list",
+            "/set feedback verbose",
+            "1 + 1",
+            "/drop square",
+            "/reset",
+            "/help");
+
+    private final ApplicationContext context;
+    private final Path archive;
+
+    public CdsTraining(ApplicationContext context,
+                       @Value("${code.evaluator.cds.training}") String archive) {
+        this.context = context;
+        this.archive = Path.of(archive);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Files.createDirectories(archive.toAbsolutePath().getParent());
+        try (Evaluator evaluator = new Evaluator(new TrainingEngine(archive)).start()) {
+            for (String snippet : SNIPPETS) {
+                evaluator.evaluate(snippet);
+            }
+        }
+
+        System.exit(SpringApplication.exit(context));
+    }
+}
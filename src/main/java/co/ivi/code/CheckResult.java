@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import java.util.List;
+
+/**
+ * The result of a check: whether the source is complete, and the
+ * diagnostics of its snippets, in the order of the snippets.
+ */
+public record CheckResult(boolean complete, List<Diagnostic> diagnostics) {
+    /**
+     * A diagnostic, from the start to the end offsets in the source, and at
+     * the line and the column of the start, counted from 1.
+     *
+     * @param severity "error" or "warning"
+     * @param code the compiler key of the diagnostic, if any
+     */
+    public record Diagnostic(String severity, String code, String message,
+                             int start, int end, int line, int column) {
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import co.ivi.code.exec.Engine;
+import jdk.jshell.DeclarationSnippet;
+import jdk.jshell.Diag;
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+import jdk.jshell.SnippetEvent;
+import jdk.jshell.SourceCodeAnalysis;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Check sources without running them: the completeness of the source, and
+ * the compilation diagnostics of its snippets, with their positions in the
+ * source.  The command lines of the source are skipped.
+ * <p>
+ * The sources are checked by a small pool of JShell instances of their own,
+ * with no agent: the snippets are compiled, but neither loaded nor run, so
+ * the sessions and their agents are never involved.  The snippets of a
+ * check are dropped once checked; as the dropped snippets are still held by
+ * JShell, an instance is rebuilt after a number of checks.
+ */
+@Component
+public class CodeChecker implements Closeable {
+    // The checks of an instance before it is rebuilt
+    private static final int MAX_CHECKS = 500;
+
+    private final BlockingQueue<Instance> idle = new LinkedBlockingQueue<>();
+    private final Semaphore instances;
+    private volatile boolean closed = false;
+
+    private static final class Instance {
+        final JShell jShell = Engine.ANALYSIS.configure(JShell.builder())
+                .out(new PrintStream(OutputStream.nullOutputStream()))
+                .err(new PrintStream(OutputStream.nullOutputStream()))
+                .build();
+        final SourceCodeAnalysis analysis = jShell.sourceCodeAnalysis();
+        int checks = 0;
+    }
+
+    public CodeChecker(@Value("${code.check.pool-size:2}") int poolSize) {
+        this.instances = new Semaphore(Math.max(1, poolSize));
+    }
+
+    /**
+     * Check the source, waiting for an instance if all are busy.
+     */
+    CheckResult check(String source) {
+        instances.acquireUninterruptibly();
+        Instance instance = idle.poll();
+        try {
+            if (instance == null) {
+                instance = new Instance();
+            }
+            return check(instance, source);
+        } finally {
+            if (instance != null) {
+                if (closed || ++instance.checks >= MAX_CHECKS) {
+                    instance.jShell.close();
+                } else {
+                    idle.add(instance);
+                }
+            }
+            instances.release();
+        }
+    }
+
+    private CheckResult check(Instance instance, String source) {
+        Checking checking = new Checking(instance, source);
+        try {
+            // The code between the command lines, section by section
+            int section = 0;
+            for (int i = 0; i < source.length(); ) {
+                int eol = source.indexOf('\n', i);
+                int next = eol < 0 ? source.length() : eol + 1;
+                if (Evaluator.isCommand(source.substring(i, next))) {
+                    checking.checkCode(section, i);
+                    section = next;
+                }
+                i = next;
+            }
+            checking.checkCode(section, source.length());
+
+            return new CheckResult(checking.complete, checking.diagnostics);
+        } finally {
+            checking.snippets.stream()
+                    .filter(sn -> instance.jShell.status(sn).isActive())
+                    .forEach(instance.jShell::drop);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        List<Instance> instances = new ArrayList<>();
+        idle.drainTo(instances);
+        instances.forEach(instance -> instance.jShell.close());
+    }
+
+    // The state of the check of a source
+    private static final class Checking {
+        final Instance instance;
+        final String source;
+        final List<CheckResult.Diagnostic> diagnostics = new ArrayList<>();
+        final List<Snippet> snippets = new ArrayList<>();
+        boolean complete = true;
+
+        // The offsets of the lines of the source
+        private final int[] lines;
+
+        Checking(Instance instance, String source) {
+            this.instance = instance;
+            this.source = source;
+            this.lines = lineOffsets(source);
+        }
+
+        // Check the code from the offset to the end offset of the source
+        void checkCode(int from, int to) {
+            if (from >= to) {
+                return;
+            }
+
+            SnippetSegmenter segmenter =
+                    new SnippetSegmenter(instance.analysis, source.substring(from, to));
+            while (true) {
+                int offset = from + segmenter.offset();
+                SourceCodeAnalysis.CompletionInfo ci = segmenter.next();
+                if (!ci.completeness().isComplete()) {
+                    if (ci.completeness() != SourceCodeAnalysis.Completeness.EMPTY) {
+                        complete = false;
+                        diagnostics.add(diagnostic("error", null, "Incomplete input",
+                                strip(offset, to), to));
+                    }
+                    return;
+                }
+
+                int end = Math.min(to, offset + ci.source().length());
+                for (SnippetEvent event : instance.jShell.eval(ci.source())) {
+                    if (event.causeSnippet() != null) {
+                        continue;
+                    }
+                    snippets.add(event.snippet());
+                    instance.jShell.diagnostics(event.snippet()).forEach(diag ->
+                            diagnostics.add(diagnostic(diag, offset, end)));
+
+                    // A declaration may use what is not declared yet, and
+                    // cannot be used until it is
+                    if (event.snippet() instanceof DeclarationSnippet declaration) {
+                        List<String> unresolved = instance.jShell
+                                .unresolvedDependencies(declaration).toList();
+                        if (!unresolved.isEmpty()) {
+                            diagnostics.add(diagnostic("warning", null,
+                                    String.join(", ", unresolved) + " not declared",
+                                    strip(offset, end), end));
+                        }
+                    }
+                }
+            }
+        }
+
+        // The diagnostic of the snippet from the offset to the end offset
+        private CheckResult.Diagnostic diagnostic(Diag diag, int offset, int end) {
+            long start = diag.getStartPosition();
+            long stop = diag.getEndPosition();
+            if (start < 0) {
+                // No position, the whole snippet
+                start = strip(offset, end) - offset;
+                stop = end - offset;
+            }
+            // As the evaluation output, without the location in the wrapper
+            // class of the snippet
+            String message = diag.getMessage(Locale.ENGLISH).lines()
+                    .filter(line -> !line.trim().startsWith("location:"))
+                    .collect(Collectors.joining("\n"));
+            return diagnostic(diag.isError() ? "error" : "warning", diag.getCode(),
+                    message,
+                    (int) Math.min(end, offset + start),
+                    (int) Math.min(end, offset + Math.max(start, stop)));
+        }
+
+        // The offset of the snippet from the offset, past the leading white
+        // space
+        private int strip(int offset, int end) {
+            int start = offset;
+            while (start < end && Character.isWhitespace(source.charAt(start))) {
+                start++;
+            }
+            return start;
+        }
+
+        private CheckResult.Diagnostic diagnostic(String severity, String code,
+                                                  String message, int start, int end) {
+            // The line of the start, by the offsets of the lines
+            int line = Arrays.binarySearch(lines, start);
+            if (line < 0) {
+                line = -line - 2;
+            }
+            return new CheckResult.Diagnostic(severity, code, message,
+                    start, end, line + 1, start - lines[line] + 1);
+        }
+
+        private static int[] lineOffsets(String source) {
+            List<Integer> offsets = new ArrayList<>();
+            offsets.add(0);
+            for (int i = source.indexOf('\n'); i >= 0; i = source.indexOf('\n', i + 1)) {
+                offsets.add(i + 1);
+            }
+            return offsets.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
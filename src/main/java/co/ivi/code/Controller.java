@@ -7,23 +7,127 @@ package co.ivi.code;
 
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @CrossOrigin(origins = "https://code.ivi.co,https://note.ivi.co")
 public class Controller {
     private final Service service;
+    private final AdmissionControl admissionControl;
+    private final BatchEvaluation batchEvaluation;
+    private final CodeChecker codeChecker;
 
     @Autowired
-    public Controller(Service service) {
+    public Controller(Service service, AdmissionControl admissionControl,
+                      BatchEvaluation batchEvaluation, CodeChecker codeChecker) {
         this.service = service;
+        this.admissionControl = admissionControl;
+        this.batchEvaluation = batchEvaluation;
+        this.codeChecker = codeChecker;
     }
 
     @PostMapping("/go")
-    public EvaluationResult evaluate(@RequestBody EvaluationRequest request,
+    public CompletableFuture<EvaluationResult> evaluate(@RequestBody EvaluationRequest request,
+                                                       HttpSession session) {
+        // Forward the received code to the service for evaluation, off the
+        // request thread; evaluations of the session run one at a time
+        String sessionID = service.sessionID(session);
+        return admissionControl.submit(
+                () -> service.evaluateCode(request.code(), sessionID));
+    }
+
+    @PostMapping("/go/once")
+    public CompletableFuture<EvaluationResult> evaluateOnce(@RequestBody EvaluationRequest request) {
+        // A cached result is returned as it is, with no evaluator and no
+        // admission
+        if (request.cacheable()) {
+            EvaluationResult cached = service.cachedResult(request.code());
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        // Evaluate with a clean evaluator; no session is created or looked
+        // up, and nothing of the evaluation is retained
+        return admissionControl.submit(
+                () -> service.evaluateOnce(request.code(), request.cacheable()));
+    }
+
+    @PostMapping(value = "/go/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter evaluateStream(@RequestBody EvaluationRequest request,
                                      HttpSession session) {
-        // Forward the received code to the service for evaluation
-        return service.evaluateCode(request.code(), session);
+        // Send the output as it is produced, as server-sent events, then
+        // the result of the evaluation
+        String sessionID = service.sessionID(session);
+        SseEmitter emitter = new SseEmitter();
+        EvaluationStream stream = new EvaluationStream(emitter);
+        admissionControl.submit(
+                () -> service.evaluateCode(request.code(), sessionID, stream))
+                .whenComplete(stream::complete);
+        return emitter;
+    }
+
+    @PostMapping("/go/batch")
+    public CompletableFuture<List<EvaluationResult>> evaluateBatch(
+            @RequestBody BatchRequest request) {
+        // Evaluate the independent sources in parallel, each in a session
+        // of its own, and return the results in order
+        return batchEvaluation.submit(request.sources(), request.cacheable()).all();
     }
-}
 
+    @PostMapping(value = "/go/batch/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter evaluateBatchStream(@RequestBody BatchRequest request) {
+        // Send each result as a "result" event as soon as it completes
+        BatchEvaluation.Batch batch = batchEvaluation.submit(
+                request.sources(), request.cacheable());
+        SseEmitter emitter = new SseEmitter();
+        emitter.onTimeout(batch::abandon);
+        emitter.onError(ex -> batch.abandon());
+
+        List<CompletableFuture<EvaluationResult>> results = batch.results();
+        for (int i = 0; i < results.size(); i++) {
+            int index = i;
+            results.get(i).thenAccept(result -> {
+                try {
+                    emitter.send(SseEmitter.event().name("result")
+                            .data(new BatchResult(index, result), MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException ex) {
+                    // The client is gone
+                    batch.abandon();
+                }
+            });
+        }
+        batch.all().whenComplete((all, ex) -> emitter.complete());
+        return emitter;
+    }
+
+    @PostMapping("/check")
+    public CheckResult check(@RequestBody EvaluationRequest request) {
+        // Compile the code only, for the diagnostics; nothing is run, and
+        // no session is created or looked up
+        return codeChecker.check(request.code());
+    }
+
+    @ExceptionHandler(AdmissionControl.RejectedException.class)
+    public ResponseEntity<EvaluationResult> rejected(AdmissionControl.RejectedException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(Math.max(1, ex.retryAfter().toSeconds())))
+                .body(new EvaluationResult(false, ex.getMessage()));
+    }
+
+    @ExceptionHandler(BatchEvaluation.TooLargeException.class)
+    public ResponseEntity<EvaluationResult> tooLarge(BatchEvaluation.TooLargeException ex) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(new EvaluationResult(false, ex.getMessage()));
+    }
+}
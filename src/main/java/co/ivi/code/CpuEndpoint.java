@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * The live sessions that used the most CPU time, to find the heavy tenants.
+ * <p>
+ * The endpoint lists session ids, and is not exposed over the web unless
+ * included in {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "cpu")
+public class CpuEndpoint {
+    private static final int TOP = 10;
+
+    private final EvaluatorRegistry evaluatorRegistry;
+
+    public CpuEndpoint(EvaluatorRegistry evaluatorRegistry) {
+        this.evaluatorRegistry = evaluatorRegistry;
+    }
+
+    @ReadOperation
+    public Map<String, Duration> heaviest() {
+        return evaluatorRegistry.heaviest(TOP);
+    }
+}
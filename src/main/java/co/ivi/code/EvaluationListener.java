@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+/**
+ * The listener of the output of a streamed evaluation.  The listener is
+ * called by one thread at a time, in the order of the output.
+ */
+public interface EvaluationListener {
+    /**
+     * The output produced while a snippet is running, or by a command.
+     */
+    void output(String text);
+
+    /**
+     * The output of a snippet event: the feedback of the snippet, and the
+     * output of the snippet not sent yet.
+     *
+     * @param id the snippet id
+     * @param status the status of the snippet, as a {@code Snippet.Status}
+     *        name
+     * @param text the output
+     */
+    void snippet(String id, String status, String text);
+
+    /**
+     * Called once the evaluation holds the evaluator, before the source is
+     * evaluated.
+     *
+     * @return false to skip the source, as a cancelled evaluation does
+     */
+    default boolean started() {
+        return true;
+    }
+}
@@ -5,6 +5,13 @@
 
 package co.ivi.code;
 
-public record EvaluationRequest(String code) {
-    // You can add additional custom methods or constructors here if needed
+/**
+ * The code to evaluate.  A one-shot evaluation of code marked cacheable,
+ * whose result does not depend on when it runs, may be answered from the
+ * result cache.
+ */
+public record EvaluationRequest(String code, boolean cacheable) {
+    public EvaluationRequest(String code) {
+        this(code, false);
+    }
 }
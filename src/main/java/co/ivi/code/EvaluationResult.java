@@ -5,7 +5,18 @@
 
 package co.ivi.code;
 
-public record EvaluationResult(boolean status, String message) {
-    // You can add additional custom methods or constructors here if needed
-}
+import java.util.List;
 
+/**
+ * The result of an evaluation.  If the evaluation timed out, the snippets
+ * and commands not evaluated are listed as skipped.  An evaluation is cut
+ * short if it was stopped before it was done: timed out, cancelled, over
+ * the CPU budget, throttled, or failed unexpectedly.
+ */
+public record EvaluationResult(boolean status, String message,
+                               boolean timedOut, boolean cutShort,
+                               List<String> skipped) {
+    public EvaluationResult(boolean status, String message) {
+        this(status, message, false, false, List.of());
+    }
+}
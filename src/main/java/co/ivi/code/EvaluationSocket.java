@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluate the submissions of a WebSocket connection, bound to the
+ * evaluator of the HTTP session of the handshake, or to an evaluator of its
+ * own if there is no HTTP session.  The HTTP session is looked up once, at
+ * the handshake, rather than for every submission.
+ * <p>
+ * The messages are JSON text frames.  The client sends:
+ * <ul>
+ *     <li>{@code {"type": "submit", "id": ..., "code": ...}}</li>
+ *     <li>{@code {"type": "cancel", "id": ...}}</li>
+ * </ul>
+ * and the server replies, for the submission of the id:
+ * <ul>
+ *     <li>{@code {"type": "output", "id": ..., "text": ...}}</li>
+ *     <li>{@code {"type": "snippet", "id": ..., "snippet": ..., "status": ...,
+ *         "text": ...}}</li>
+ *     <li>{@code {"type": "done", "id": ..., "result": ...}}, the last
+ *         message of the submission</li>
+ *     <li>{@code {"type": "error", "id": ..., "message": ...}}, for a message
+ *         not understood</li>
+ * </ul>
+ * The submissions of a connection are evaluated one at a time, in order,
+ * and are admitted as the {@code /go} requests are.
+ */
+@Component
+public class EvaluationSocket extends TextWebSocketHandler {
+    // The connection state, in the attributes of the WebSocket session
+    private static final String CONNECTION = "code-connection";
+
+    record OutputFrame(String type, String id, String text) {
+    }
+
+    record SnippetFrame(String type, String id, String snippet, String status, String text) {
+    }
+
+    record DoneFrame(String type, String id, EvaluationResult result) {
+    }
+
+    record ErrorFrame(String type, String id, String message) {
+    }
+
+    private final Service service;
+    private final AdmissionControl admissionControl;
+    private final ObjectMapper mapper;
+    private final int maxPending;
+    private final int sendTimeLimit;
+    private final int bufferLimit;
+
+    public EvaluationSocket(
+            Service service,
+            AdmissionControl admissionControl,
+            ObjectMapper mapper,
+            @Value("${code.websocket.max-pending:16}") int maxPending,
+            @Value("${code.websocket.send-time-limit:10s}") Duration sendTimeLimit,
+            @Value("${code.websocket.buffer-limit:1MB}") DataSize bufferLimit) {
+        this.service = service;
+        this.admissionControl = admissionControl;
+        this.mapper = mapper;
+        this.maxPending = Math.max(1, maxPending);
+        this.sendTimeLimit = (int) sendTimeLimit.toMillis();
+        this.bufferLimit = (int) bufferLimit.toBytes();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.getAttributes().put(CONNECTION, new Connection(session));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION);
+        String id = null;
+        try {
+            JsonNode frame = mapper.readTree(message.getPayload());
+            id = frame.path("id").asText(null);
+            switch (frame.path("type").asText()) {
+                case "submit" -> connection.submit(id, frame.path("code").asText(""));
+                case "cancel" -> connection.cancel(id);
+                default -> connection.send(new ErrorFrame("error", id, "Unknown message type"));
+            }
+        } catch (JsonProcessingException jpe) {
+            connection.send(new ErrorFrame("error", id, "Malformed message"));
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = (Connection) session.getAttributes().remove(CONNECTION);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private final class Connection {
+        private final WebSocketSession session;
+        private final String sessionID;
+        // Whether the evaluator is owned by the connection
+        private final boolean owned;
+
+        // Evaluates the submissions one at a time, in order
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(
+                Thread.ofVirtual().name("websocket-", 0).factory());
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+        private volatile Submission running;
+
+        Connection(WebSocketSession session) {
+            // Sends are serialized, and bounded in time and in memory
+            this.session = new ConcurrentWebSocketSessionDecorator(
+                    session, sendTimeLimit, bufferLimit);
+            Object sessionID = session.getAttributes().get(Service.NAME_EV);
+            if (sessionID == null) {
+                sessionID = session.getAttributes().get(
+                        HttpSessionHandshakeInterceptor.HTTP_SESSION_ID_ATTR_NAME);
+            }
+            this.owned = !(sessionID instanceof String);
+            this.sessionID = owned ? "websocket-" + session.getId() : (String) sessionID;
+        }
+
+        void submit(String id, String code) {
+            if (pending.incrementAndGet() > maxPending) {
+                pending.decrementAndGet();
+                send(new DoneFrame("done", id, new EvaluationResult(false,
+                        "Too many pending submissions, " + maxPending + " at most")));
+                return;
+            }
+
+            executor.execute(() -> {
+                try {
+                    evaluate(id, code);
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        cancelled.clear();
+                    }
+                }
+            });
+        }
+
+        private void evaluate(String id, String code) {
+            Submission submission = new Submission(id);
+            synchronized (this) {
+                if (id != null && cancelled.remove(id)) {
+                    send(new DoneFrame("done", id, new EvaluationResult(false,
+                            "Evaluation was cancelled.")));
+                    return;
+                }
+                running = submission;
+            }
+
+            EvaluationResult result;
+            try {
+                result = admissionControl.admit(
+                        () -> service.evaluateCode(code, sessionID, submission));
+            } catch (AdmissionControl.RejectedException ex) {
+                result = new EvaluationResult(false, ex.getMessage());
+            } finally {
+                running = null;
+            }
+            send(new DoneFrame("done", id, result));
+        }
+
+        void cancel(String id) {
+            if (id == null) {
+                return;
+            }
+
+            Submission submission;
+            synchronized (this) {
+                submission = running;
+                if (submission == null || !id.equals(submission.id)) {
+                    if (pending.get() > 0) {
+                        cancelled.add(id);
+                    }
+                    return;
+                }
+            }
+            submission.cancel();
+        }
+
+        void send(Object frame) {
+            if (!session.isOpen()) {
+                return;
+            }
+
+            try {
+                session.sendMessage(new TextMessage(mapper.writeValueAsString(frame)));
+            } catch (IOException | RuntimeException ex) {
+                // The client is gone, or does not keep up; the decorator
+                // closes the session once over its limits
+            }
+        }
+
+        void close() {
+            executor.shutdownNow();
+            Submission submission = running;
+            if (submission != null) {
+                submission.cancel();
+            }
+            if (owned) {
+                service.release(sessionID);
+            }
+        }
+
+        /**
+         * The listener of a submission.  A submission cancelled before it
+         * holds the evaluator is skipped once it starts, and only its own
+         * evaluation is stopped, not another one of the session.
+         */
+        private final class Submission implements EvaluationListener {
+            private final String id;
+            private boolean started = false;
+            private boolean cancelled = false;
+
+            Submission(String id) {
+                this.id = id;
+            }
+
+            @Override
+            public void output(String text) {
+                send(new OutputFrame("output", id, text));
+            }
+
+            @Override
+            public void snippet(String snippet, String status, String text) {
+                send(new SnippetFrame("snippet", id, snippet, status, text));
+            }
+
+            @Override
+            public synchronized boolean started() {
+                started = true;
+                return !cancelled;
+            }
+
+            void cancel() {
+                synchronized (this) {
+                    cancelled = true;
+                    if (!started) {
+                        return;
+                    }
+                }
+                service.cancel(sessionID, this);
+            }
+        }
+    }
+}
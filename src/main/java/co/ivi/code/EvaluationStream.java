@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Send the output of a streamed evaluation as server-sent events:
+ * <ul>
+ *     <li>{@code output}, the output produced while a snippet is running,
+ *         or by a command</li>
+ *     <li>{@code snippet}, the output of a snippet event</li>
+ *     <li>{@code status}, the evaluation result, with the output not sent
+ *         before; the last event of the stream</li>
+ * </ul>
+ * The events are sent as they are produced, so the server does not hold
+ * the output of the evaluation.  Once the client is gone, the remaining
+ * events are dropped.
+ */
+final class EvaluationStream implements EvaluationListener {
+    record Output(String text) {
+    }
+
+    record SnippetOutput(String id, String status, String text) {
+    }
+
+    private final SseEmitter emitter;
+    private volatile boolean gone = false;
+
+    EvaluationStream(SseEmitter emitter) {
+        this.emitter = emitter;
+        emitter.onCompletion(() -> gone = true);
+        emitter.onTimeout(() -> gone = true);
+        emitter.onError(ex -> gone = true);
+    }
+
+    @Override
+    public void output(String text) {
+        send("output", null, new Output(text));
+    }
+
+    @Override
+    public void snippet(String id, String status, String text) {
+        send("snippet", id, new SnippetOutput(id, status, text));
+    }
+
+    /**
+     * Send the result, or the failure, of the evaluation, and end the
+     * stream.
+     */
+    void complete(EvaluationResult result, Throwable failure) {
+        if (failure != null) {
+            Throwable cause = failure instanceof CompletionException ?
+                    failure.getCause() : failure;
+            result = new EvaluationResult(false, cause instanceof AdmissionControl.RejectedException ?
+                    cause.getMessage() : "Service load failed!");
+        }
+
+        send("status", null, result);
+        if (!gone) {
+            emitter.complete();
+        }
+    }
+
+    private void send(String name, String id, Object data) {
+        if (gone) {
+            return;
+        }
+
+        SseEmitter.SseEventBuilder event = SseEmitter.event().name(name);
+        if (id != null) {
+            event.id(id);
+        }
+        try {
+            emitter.send(event.data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException ex) {
+            // The client is gone
+            gone = true;
+        }
+    }
+}
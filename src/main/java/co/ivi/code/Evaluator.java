@@ -30,7 +30,20 @@ import jdk.jshell.*;
 import joptsimple.*;
 
 import java.io.*;
+import java.text.MessageFormat;
 import java.util.*;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -46,6 +59,8 @@ import co.ivi.code.eval.Command;
 import co.ivi.code.eval.Feedback;
 import co.ivi.code.eval.Selector;
 import co.ivi.code.eval.ArgTokenizer;
+import co.ivi.code.exec.CpuMeter;
+import co.ivi.code.exec.Engine;
 
 public class Evaluator implements Closeable {
 
@@ -53,36 +68,237 @@ public class Evaluator implements Closeable {
     public static final Pattern ID = Pattern.compile("[se]?\\d+([-\\s].*)?");
     public static final String[] SET_SUBCOMMANDS = new String[] {
             "format", "truncation", "feedback", "mode",
-            "prompt", "editor", "start", "indent"
+            "prompt", "editor", "start", "indent", "timeout"
         };
     public static final int OUTPUT_WIDTH = 72;
     public static final int DEFAULT_INDENT = 4;
     public static final String FEEDBACK_KEY = "FEEDBACK";
     public static final String MODE_KEY = "MODE";
 
+    // The interval of the stop requests to a timed out evaluation, as a
+    // stop is lost if the snippet is not running yet
+    private static final long STOP_INTERVAL = 100;
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("evaluation-timer").daemon().factory());
+
+    // The interval of sending the output of a streamed evaluation, in
+    // milliseconds.  The output is sent by the threads of the streams, so
+    // that a slow client holds neither the timer of the timeouts nor the
+    // stream lock.
+    private static final long STREAM_INTERVAL = 100;
+    private static final ExecutorService STREAMS =
+            Executors.newCachedThreadPool(
+                    Thread.ofPlatform().name("evaluation-stream-", 0).daemon().factory());
+
+    // The time the result of a streamed evaluation waits for the output
+    // queued before it to be sent, in milliseconds; the output not sent
+    // by then is dropped, as for a client gone
+    private static final long STREAM_FLUSH_TIMEOUT = 10_000;
+
+    // The interval of sampling the CPU time of a running evaluation, in
+    // milliseconds.  Sampling may read from the agent, so it is not done
+    // by the timer of the timeouts.
+    private static final long CPU_INTERVAL = 100;
+    private static final ScheduledExecutorService CPU_SAMPLER =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("evaluation-cpu-sampler").daemon().factory());
+
+    // The output limit of an evaluation, in bytes
+    private static final long DEFAULT_OUTPUT_LIMIT = 1024 * 1024;
+
+    // The prefix of the ids of the warm-up snippets, hidden from the session
+    private static final String WARM_UP_PREFIX = "w";
+
+    // The snippets a JShell may hold, including the ones discarded by fast
+    // resets, before a reset restarts the agent to free them
+    private static final int MAX_RETIRED = 2000;
+
     private JShell jShell;
     private SourceCodeAnalysis analysis;
-    private final ByteArrayOutputStream evalMessage = new ByteArrayOutputStream();
+    private final OutputBuffer evalMessage = new OutputBuffer(DEFAULT_OUTPUT_LIMIT,
+            dropped -> MessageFormat.format(
+                    Messenger.ResourceKeys.resource("msg.output.truncated"), dropped));
     private Messenger messenger;
     private final Feedback feedback = new Feedback();
 
     private final Options options = new Options();
+    private final Engine engine;
 
     private final Map<String, String> prefs = new HashMap<>();
 
-    private final Consumer<Evaluator> shutdownConsumer;
+    // The accepted /set commands, replayed to restore the feedback
+    private final List<String> settings = new ArrayList<>();
+
+    // The snippet ids and temporary variable name reused by the snippets
+    // being replayed, and the ids of the snippet keys of the session; a
+    // redeclared snippet keeps the id of its key
+    private final Deque<String> replayIds = new ArrayDeque<>();
+    private String replayName;
+    private final Map<Integer, String> keyIds = new HashMap<>();
+    private int lastId = 0;
+
+    // Whether the warm-up snippets are being evaluated, and the number of
+    // their temporary variables
+    private boolean warmingUp = false;
+    private int warmUpVars = 0;
+
+    private volatile Consumer<Evaluator> shutdownConsumer = ev -> {};
+
+    // Serializes the evaluations of the session, in arrival order
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private volatile boolean closed = false;
+    private volatile long lastAccess = System.nanoTime();
+
+    // The number of evaluations of the session, across evaluators
+    private volatile long version = 0;
+    // The newest replay log saved to a shared store, if any
+    private ReplayLog savedLog;
+
+    // The evaluation timeout of the session, and its ceiling; zero for none
+    private Duration timeout = Duration.ZERO;
+    private Duration maxTimeout = Duration.ZERO;
+
+    // Whether the evaluation timed out, and the snippets it skipped since
+    private volatile boolean timedOut = false;
+    private final List<String> skipped = new ArrayList<>();
+    // The ids of the snippets stopped by a timeout or a cancel, which are
+    // not replayed
+    private final Set<String> stopped = new HashSet<>();
+
+    // Whether an evaluation is running, and whether it was cancelled
+    private volatile boolean running = false;
+    private volatile boolean cancelled = false;
+
+    // The CPU time budget of each evaluation, and the cumulative budget of
+    // the session refilled over the budget window, in nanoseconds; zero
+    // for none
+    private long requestBudget = 0;
+    private long cpuBudget = 0;
+    private long budgetWindow = 0;
+
+    // The meter of the current agent, and the agent reading accounted last
+    private volatile CpuMeter cpuMeter;
+    private volatile CpuMeter meteredBy;
+    private volatile long lastReading;
+
+    // The CPU time used by the session, and by its latest evaluation
+    private volatile long cpuTime = 0;
+    private volatile long lastCpuTime = 0;
+    private volatile long requestStart;
+
+    // The remaining cumulative budget, and when it was refilled last
+    private double credit;
+    private long refilledAt = System.nanoTime();
+
+    // Whether the evaluation used up its budget, and whether its running
+    // snippet was stopped for it, or was throttled as the session used up
+    // the cumulative budget
+    private volatile boolean cpuExceeded = false;
+    private volatile boolean cpuStopped = false;
+    private boolean throttled = false;
+
+    // The streamer of a streamed evaluation, guarded by the stream lock so
+    // that the output is queued in order, and not after the result
+    private final Object streamLock = new Object();
+    private Streamer streamer;
+
+    // The evaluator using the JShell built by this evaluator; another
+    // evaluator once the JShell is donated to it
+    private volatile Evaluator owner = this;
+
+    // The output of the JShell built by this evaluator, to its owner
+    private final PrintStream jShellOut = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+            owner.evalMessage.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            owner.evalMessage.write(b, off, len);
+        }
+    });
+
+    // The options fingerprint of the JShell, and the number of its
+    // snippets discarded by fast resets
+    private String fingerprint = "";
+    private int retired = 0;
+    // Whether the JShell, or its agent, is gone
+    private boolean terminated = false;
+
+    // The pooled evaluators donating their JShell on reset, by options
+    private Function<JShellOptions, Evaluator> donors = options -> null;
+
+    /**
+     * The options a JShell is built with, as set by /env, and their
+     * fingerprint in a canonical order.
+     */
+    record JShellOptions(String fingerprint,
+                         List<String> remoteVmOptions, List<String> compilerOptions) {
+        static final JShellOptions DEFAULT = new JShellOptions("", List.of(), List.of());
+    }
 
-    Evaluator(Consumer<Evaluator> shutdownConsumer) {
-        this.shutdownConsumer = shutdownConsumer;
+    Evaluator() {
+        this(Engine.REMOTE);
+    }
 
-        PrintStream ops = new PrintStream(evalMessage);
-        this.jShell = JShell.builder()
-                .out(ops)
-                .err(ops)
-                .build();
-        this.jShell.onShutdown(this::onShutdown);
+    // The evaluator is unbound until bind() is called
+    Evaluator(Engine engine) {
+        this(engine, JShellOptions.DEFAULT);
+    }
+
+    /**
+     * Create an evaluator whose JShell is built with the options, to be
+     * taken over by an evaluator resetting to the options.
+     */
+    Evaluator(Engine engine, JShellOptions jShellOptions) {
+        this.engine = engine;
+
+        this.jShell = build(builder()
+                .remoteVMOptions(jShellOptions.remoteVmOptions().toArray(String[]::new))
+                .compilerOptions(jShellOptions.compilerOptions().toArray(String[]::new)));
         this.analysis = jShell.sourceCodeAnalysis();
-        this.messenger = new Messenger(ops);
+        this.messenger = new Messenger(new PrintStream(evalMessage));
+        this.fingerprint = jShellOptions.fingerprint();
+    }
+
+    // The callbacks of the JShell go to the owner of the JShell
+    private JShell.Builder builder() {
+        return engine.configure(JShell.builder(),
+                        control -> owner.cpuMeter = new CpuMeter(control))
+                .out(jShellOut)
+                .err(jShellOut)
+                .idGenerator((snippet, index) -> owner.snippetId(snippet, index))
+                .tempVariableNameGenerator(() -> owner.tempVariableName());
+    }
+
+    private JShell build(JShell.Builder builder) {
+        JShell built = builder.build();
+        built.onShutdown(deadState -> owner.onShutdown(deadState));
+        return built;
+    }
+
+    private String snippetId(Snippet snippet, int index) {
+        if (warmingUp) {
+            return WARM_UP_PREFIX + index;
+        }
+        String id = replayIds.poll();
+        if (id != null) {
+            keyIds.put(index, id);
+            return id;
+        }
+        return keyIds.computeIfAbsent(index, i -> String.valueOf(++lastId));
+    }
+
+    private String tempVariableName() {
+        if (warmingUp) {
+            return "$" + WARM_UP_PREFIX + ++warmUpVars;
+        }
+
+        String name = replayName;
+        replayName = null;
+        return name;
     }
 
     public Evaluator start() {
@@ -96,17 +312,419 @@ public class Evaluator implements Closeable {
         return this;
     }
 
+    /**
+     * Warm up the compiler and the agent with the source, so that the first
+     * evaluation of the session is not slowed down by cold code.  The
+     * warm-up snippets are dropped, and hidden from the session; the
+     * snippets of the session are numbered from 1 as usual.
+     */
+    Evaluator warmUp(String source) {
+        lock.lock();
+        try {
+            warmingUp = true;
+            processInput(source);
+            jShell.snippets()
+                    .filter(this::isActive)
+                    .toList()
+                    .forEach(jShell::drop);
+        } finally {
+            warmingUp = false;
+            evalMessage.reset();
+            lock.unlock();
+        }
+
+        return this;
+    }
+
+    /**
+     * Limit the wall-clock time of each evaluation.  The session may change
+     * its timeout with /set timeout, up to the ceiling.  A zero duration
+     * means no limit.
+     */
+    Evaluator withTimeout(Duration timeout, Duration maxTimeout) {
+        this.maxTimeout = maxTimeout;
+        this.timeout = clamp(timeout);
+        return this;
+    }
+
+    /**
+     * Limit the output of each evaluation; the output over the limit is
+     * dropped, and the output is marked as truncated.
+     */
+    Evaluator withOutputLimit(long bytes) {
+        evalMessage.setLimit(bytes);
+        return this;
+    }
+
+    /**
+     * Limit the CPU time of the snippets of the session, as measured in the
+     * agent: the budget of each evaluation, and the cumulative budget that
+     * is refilled over the window.  The remaining snippets of an evaluation
+     * over its budget are skipped, and the code of a session out of the
+     * cumulative budget is not evaluated until the budget is refilled.  A
+     * zero duration means no limit.
+     */
+    Evaluator withCpuBudget(Duration requestBudget,
+                            Duration budget, Duration window) {
+        this.requestBudget = requestBudget.toNanos();
+        this.cpuBudget = budget.toNanos();
+        this.budgetWindow = window.toNanos();
+        this.credit = cpuBudget;
+        return this;
+    }
+
+    // The CPU time used by the snippets of the session, in nanoseconds
+    long cpuTime() {
+        return cpuTime;
+    }
+
+    // The CPU time used by the latest evaluation, in nanoseconds
+    long lastCpuTime() {
+        return lastCpuTime;
+    }
+
+    // Whether the latest evaluation was throttled
+    boolean isThrottled() {
+        return throttled;
+    }
+
+    // Account the CPU time used by the agent since the last reading.  The
+    // first reading of an agent is the baseline, so the start-up, warm-up
+    // and replay of the agent are not accounted to the session.
+    private void meterCpu() {
+        CpuMeter meter = cpuMeter;
+        if (meter == null) {
+            return;
+        }
+
+        long reading = meter.cpuTime();
+        if (reading < 0) {
+            return;
+        }
+        if (meter == meteredBy && reading > lastReading) {
+            long used = reading - lastReading;
+            cpuTime += used;
+            credit -= used;
+        }
+        meteredBy = meter;
+        lastReading = reading;
+    }
+
+    // Account the CPU time used since the last evaluation, refill the
+    // cumulative budget, and start the budget of the evaluation
+    private void startMetering() {
+        cpuExceeded = false;
+        cpuStopped = false;
+        meterCpu();
+        if (cpuBudget > 0) {
+            long now = System.nanoTime();
+            double refill = budgetWindow > 0 ?
+                    (double) cpuBudget * (now - refilledAt) / budgetWindow : cpuBudget;
+            credit = Math.min(cpuBudget, credit + refill);
+            refilledAt = now;
+        }
+        throttled = cpuBudget > 0 && credit <= 0;
+        requestStart = cpuTime;
+    }
+
+    // Account the CPU time used by the latest snippet, and stop the
+    // evaluation once over its budget
+    private void checkCpu() {
+        if (warmingUp) {
+            return;
+        }
+        meterCpu();
+        if (requestBudget > 0 && cpuTime - requestStart > requestBudget) {
+            cpuExceeded = true;
+        }
+    }
+
+    // Stop the running snippet once the evaluation is over its budget, as
+    // sampled while the snippet runs
+    private ScheduledFuture<?> startCpuSampler() {
+        if (requestBudget <= 0) {
+            return null;
+        }
+
+        return CPU_SAMPLER.scheduleWithFixedDelay(() -> {
+            if (!cpuExceeded) {
+                CpuMeter meter = cpuMeter;
+                if (meter == null || meter != meteredBy) {
+                    return;
+                }
+                long reading = meter.runningCpuTime();
+                if (reading < 0 || cpuTime + Math.max(0, reading - lastReading) -
+                        requestStart <= requestBudget) {
+                    return;
+                }
+                cpuExceeded = true;
+                cpuStopped = true;
+            }
+            // Repeated, as a stop is lost if the snippet is not running yet
+            jShell.stop();
+        }, CPU_INTERVAL, CPU_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    // Whether the remaining snippets of the evaluation are skipped
+    private boolean isCutShort() {
+        return timedOut || cancelled || cpuExceeded || throttled;
+    }
+
+    // Cancel the running evaluation, if any: the running snippet is stopped,
+    // and the remaining snippets and commands are skipped
+    private void cancel() {
+        if (running) {
+            cancelled = true;
+            jShell.stop();
+        }
+    }
+
+    /**
+     * Cancel the running evaluation, if it is the evaluation streamed to
+     * the listener: the running snippet is stopped, and the remaining
+     * snippets and commands are skipped.
+     */
+    void cancel(EvaluationListener listener) {
+        // The stream lock keeps the evaluation from ending before it is
+        // stopped, so the next one is not stopped instead
+        synchronized (streamLock) {
+            if (streamer != null && streamer.listener == listener) {
+                cancel();
+            }
+        }
+    }
+
+    // The time until the cumulative budget is in credit again
+    private Duration refillTime() {
+        if (budgetWindow <= 0 || credit > 0) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(
+                (long) Math.ceil(-credit * budgetWindow / cpuBudget) + 1);
+    }
+
+    private Duration clamp(Duration duration) {
+        if (!maxTimeout.isZero() && (duration.isZero() || duration.compareTo(maxTimeout) > 0)) {
+            return maxTimeout;
+        }
+        return duration;
+    }
+
+    // Stop the evaluation once the timeout has elapsed, if limited
+    private ScheduledFuture<?> startTimer() {
+        timedOut = false;
+        skipped.clear();
+        if (timeout.isZero()) {
+            return null;
+        }
+
+        return TIMER.scheduleAtFixedRate(() -> {
+            timedOut = true;
+            jShell.stop();
+        }, timeout.toMillis(), STOP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    // Bind the evaluator to its owner, which is notified on close.
+    Evaluator bind(Consumer<Evaluator> shutdownConsumer) {
+        this.shutdownConsumer = shutdownConsumer;
+        return this;
+    }
+
+    /**
+     * Evaluate the source, waiting for any in-progress evaluation of this
+     * evaluator to complete first.
+     *
+     * @return the evaluation result, or null if the evaluator was closed
+     *         before the evaluation could start
+     */
     EvaluationResult evaluate(String source) {
+        return evaluate(source, null);
+    }
+
+    /**
+     * Evaluate the source, sending the output to the listener as it is
+     * produced.  The result carries the output not sent yet.
+     *
+     * @param listener the listener of the output, or null to return all
+     *        of the output with the result
+     * @return the evaluation result, or null if the evaluator was closed
+     *         before the evaluation could start
+     */
+    EvaluationResult evaluate(String source, EvaluationListener listener) {
+        lock.lock();
         try {
-            return processInput(source);
+            if (closed) {
+                return null;
+            }
+
+            lastAccess = System.nanoTime();
+            cancelled = false;
+            running = true;
+            if (listener != null) {
+                Streamer started = new Streamer(listener);
+                synchronized (streamLock) {
+                    streamer = started;
+                }
+                started.start();
+                if (!listener.started()) {
+                    cancelled = true;
+                }
+            }
+            ScheduledFuture<?> timer = startTimer();
+            startMetering();
+            ScheduledFuture<?> sampler = startCpuSampler();
+            try {
+                return processInput(source);
+            } finally {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                if (sampler != null) {
+                    sampler.cancel(false);
+                }
+                lastCpuTime = cpuTime - requestStart;
+            }
         } catch (Exception ex) {
-            messenger.msg("err.unexpected.exception", ex);
-            return new EvaluationResult(false, evalMessage.toString());
+            evalMessage.writeStatus(() -> messenger.msg("err.unexpected.exception", ex));
+            return new EvaluationResult(false, output(), false, true, List.of());
         } finally {
+            running = false;
+            endStreaming();
             evalMessage.reset();
+            version++;
+            lastAccess = System.nanoTime();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the replay log of the session, or null if the evaluator was closed.
+     */
+    ReplayLog replayLog() {
+        lock.lock();
+        try {
+            if (closed) {
+                return null;
+            }
+
+            Map<String, List<String>> opts = new HashMap<>();
+            options.optMap.forEach((kind, values) ->
+                    opts.put(kind.name(), List.copyOf(values)));
+
+            List<ReplayLog.Entry> entries = new ArrayList<>();
+            Snippet previous = null;
+            List<String> ids = null;
+            for (Snippet sn : snippets().toList()) {
+                if (isReplayable(sn)) {
+                    // The variables declared together are replayed together
+                    if (previous != null && isReplayable(previous) &&
+                            sn.kind() == Snippet.Kind.VAR &&
+                            previous.kind() == Snippet.Kind.VAR &&
+                            sn.source().equals(previous.source())) {
+                        ids.add(sn.id());
+                    } else {
+                        ids = new ArrayList<>();
+                        ids.add(sn.id());
+                        String name = sn.subKind() == Snippet.SubKind.TEMP_VAR_EXPRESSION_SUBKIND ?
+                                ((VarSnippet) sn).name() : null;
+                        entries.add(new ReplayLog.Entry(sn.source(), ids, name));
+                    }
+                }
+                previous = sn;
+            }
+
+            return new ReplayLog(version, opts, List.copyOf(settings),
+                    entries.stream()
+                            .map(e -> new ReplayLog.Entry(e.source(), List.copyOf(e.ids()), e.name()))
+                            .toList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replay the log of a session to this new evaluator, without the
+     * feedback of the replayed snippets.  The time taken is reported with
+     * the next evaluation.
+     */
+    void replay(ReplayLog log) {
+        lock.lock();
+        ScheduledFuture<?> timer = null;
+        try {
+            long start = System.nanoTime();
+            version = log.version();
+            if (!log.options().isEmpty()) {
+                log.options().forEach((kind, values) ->
+                        options.optMap.put(OptionKind.valueOf(kind), new ArrayList<>(values)));
+                reset();
+            }
+            log.settings().forEach(command -> processCommand(this, command));
+
+            // A snippet that timed out before times out again
+            timer = startTimer();
+            int maxId = 0;
+            for (ReplayLog.Entry entry : log.snippets()) {
+                replayIds.addAll(entry.ids());
+                replayName = entry.name();
+                jShell.eval(entry.source());
+                replayIds.clear();
+                replayName = null;
+
+                for (String id : entry.ids()) {
+                    maxId = Math.max(maxId, Integer.parseInt(id));
+                }
+            }
+            // The new snippets are numbered after the replayed snippets
+            lastId = Math.max(lastId, maxId);
+
+            evalMessage.reset();
+            messenger.msg("msg.session.restored", log.snippets().size(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception ex) {
+            evalMessage.reset();
+            messenger.msg("err.session.restore", ex);
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            replayIds.clear();
+            replayName = null;
+            lock.unlock();
+        }
+    }
+
+    // Active snippets are replayed, unless stopped by a timeout or a cancel
+    private boolean isReplayable(Snippet sn) {
+        return isActive(sn) && !stopped.contains(sn.id());
+    }
+
+    // The version of the replay log of the session
+    long version() {
+        return version;
+    }
+
+    // The newest replay log saved to a shared store, or null if none
+    synchronized ReplayLog savedLog() {
+        return savedLog;
+    }
+
+    // The evaluations of the session may save their logs out of order
+    synchronized void saved(ReplayLog log) {
+        if (savedLog == null || savedLog.version() < log.version()) {
+            savedLog = log;
         }
     }
 
+    // The System.nanoTime() of the latest evaluation start or end
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    // Whether an evaluation is in progress or waiting
+    boolean isBusy() {
+        return lock.isLocked() || lock.hasQueuedThreads();
+    }
+
     private EvaluationResult processInput(String source) {
         // Lambda expression bellow needs a final variable.
         final boolean[] evalStatus = {true};
@@ -123,7 +741,12 @@ public class Evaluator implements Closeable {
                             evalStatus[0] &= processCode(this, stringBuilder);
                             stringBuilder.setLength(0);
                         }
-                        evalStatus[0] &= processCommand(this, line);
+                        if (timedOut || cancelled || cpuExceeded) {
+                            skipped.add(line);
+                        } else {
+                            evalStatus[0] &= processCommand(this, line);
+                            streamOutput();
+                        }
                     } else {    // process source code lines
                         // join for code section processing later
                         stringBuilder.append(line).append("\n");
@@ -139,16 +762,177 @@ public class Evaluator implements Closeable {
             evalStatus[0] &= processException(this, ioe);
         }
 
-        return new EvaluationResult(evalStatus[0], evalMessage.toString());
+        // An evaluation over the CPU budget is cut short only if its
+        // running snippet was stopped, or there is anything left to skip
+        if (timedOut || cancelled || cpuStopped ||
+                ((cpuExceeded || throttled) && !skipped.isEmpty())) {
+            // Not dropped with the output over the limit
+            evalMessage.writeStatus(() -> {
+                if (timedOut) {
+                    messenger.msg("err.evaluation.timeout", timeout.toSeconds());
+                } else if (cancelled) {
+                    messenger.msg("err.evaluation.cancelled");
+                } else if (cpuExceeded) {
+                    messenger.msg("err.cpu.exceeded",
+                            Duration.ofNanos(requestBudget).toMillis() / 1000.0);
+                } else {
+                    messenger.msg("err.cpu.throttled",
+                            Duration.ofNanos(cpuBudget).toSeconds(),
+                            Duration.ofNanos(budgetWindow).toSeconds(),
+                            Math.max(1, refillTime().toSeconds()));
+                }
+                if (!skipped.isEmpty()) {
+                    messenger.msg("msg.evaluation.skipped", skipped.size());
+                    skipped.forEach(sn -> messenger.ops().println(sn.strip()));
+                }
+            });
+            return new EvaluationResult(false, output(),
+                    timedOut, true, List.copyOf(skipped));
+        }
+
+        return new EvaluationResult(evalStatus[0], output());
     }
 
-    private void initFeedback() {
-        // Execute the feedback initialization code in the resource file
-        startUpRun(Messenger.ResourceKeys.resource("startup.feedback"));
+    // The output not sent yet, which ends the streaming of the evaluation
+    private String output() {
+        Streamer ended;
+        String text;
+        synchronized (streamLock) {
+            ended = streamer;
+            streamer = null;
+            text = evalMessage.toString();
+        }
+        if (ended != null) {
+            ended.finish();
+        }
+        return text;
+    }
+
+    // End the streaming of the evaluation, if not ended by the result
+    private void endStreaming() {
+        Streamer ended;
+        synchronized (streamLock) {
+            ended = streamer;
+            streamer = null;
+        }
+        if (ended != null) {
+            ended.finish();
+        }
+    }
 
-        // These predefined modes are read-only
-        feedback.markModesReadOnly();
+    // Queue the output produced so far, if the evaluation is streamed
+    private void streamOutput() {
+        synchronized (streamLock) {
+            if (streamer != null) {
+                EvaluationListener listener = streamer.listener;
+                String text = evalMessage.drain();
+                if (!text.isEmpty()) {
+                    streamer.frames.add(() -> listener.output(text));
+                }
+            }
+        }
+    }
+
+    // Keep the output from now on, the feedback of a snippet event, for
+    // the snippet frame, if the evaluation is streamed
+    private void holdOutput() {
+        synchronized (streamLock) {
+            if (streamer != null) {
+                streamer.held = true;
+            }
+        }
+    }
+
+    // Queue the output of the snippet event, if the evaluation is streamed
+    private void streamSnippet(SnippetEvent event) {
+        synchronized (streamLock) {
+            if (streamer != null) {
+                streamer.held = false;
+                EvaluationListener listener = streamer.listener;
+                String id = event.snippet().id();
+                String status = event.status().name();
+                String text = evalMessage.drain();
+                streamer.frames.add(() -> listener.snippet(id, status, text));
+            }
+        }
+    }
+
+    /**
+     * Send the output of a streamed evaluation to the listener.  The output
+     * of the commands and the snippet events is queued by the evaluation,
+     * and the output
+     * produced in between is drained every stream interval, when nothing is
+     * queued; both under the stream lock, so the frames are in the order of
+     * the output.  The frames are sent without the lock.
+     */
+    private final class Streamer implements Runnable {
+        private static final Runnable END = () -> {};
+
+        private final EvaluationListener listener;
+        private final BlockingQueue<Runnable> frames = new LinkedBlockingQueue<>();
+        private volatile boolean dropped = false;
+        private Future<?> future;
+        // Whether the output is held for a snippet frame, guarded by the
+        // stream lock
+        private boolean held = false;
+
+        Streamer(EvaluationListener listener) {
+            this.listener = listener;
+        }
+
+        void start() {
+            future = STREAMS.submit(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!dropped) {
+                    Runnable frame = frames.poll(STREAM_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (frame == END) {
+                        return;
+                    }
+                    if (frame == null) {
+                        frame = drain();
+                    }
+                    if (frame != null && !dropped) {
+                        frame.run();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                // Dropped
+            }
+        }
+
+        // The output produced since the last frame, unless a frame is
+        // queued before it, the output is held, or the streaming is ended
+        private Runnable drain() {
+            synchronized (streamLock) {
+                if (streamer != this || held || !frames.isEmpty()) {
+                    return null;
+                }
+                String text = evalMessage.drain();
+                return text.isEmpty() ? null : () -> listener.output(text);
+            }
+        }
+
+        // Wait for the queued frames to be sent, so that no output is sent
+        // after the result
+        void finish() {
+            frames.add(END);
+            try {
+                future.get(STREAM_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException ex) {
+                dropped = true;
+            } catch (InterruptedException ie) {
+                dropped = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
+    private void initFeedback() {
+        // The predefined modes are shared, and installed with the feedback.
         // Restore user defined modes retained
         // on previous run with /set mode -retain
         String encoded = prefs.get(MODE_KEY);
@@ -167,23 +951,7 @@ public class Evaluator implements Closeable {
         }
     }
 
-    private void startUpRun(String commandSource) {
-        try (BufferedReader reader =
-                     new BufferedReader(new StringReader(commandSource))) {
-            reader.lines().forEach(line -> {
-                if (!line.isEmpty()) {    // ignore empty lines
-                    if (isCommand(line)) {    // process command lines
-                        processCommand(this, line);
-                    }   // ignore non-command lines
-                }
-            });
-        } catch (IOException ioe) {
-            messenger.msg("err.startup.unexpected.exception", ioe);
-            processException(this, ioe);
-        }
-    }
-
-    private boolean isCommand(String line) {
+    static boolean isCommand(String line) {
         return line.startsWith("/") &&
                 !line.startsWith("//") &&
                 !line.startsWith("/*");
@@ -240,15 +1008,27 @@ public class Evaluator implements Closeable {
             Evaluator ev,
             StringBuilder stringBuilder) {
         boolean opStatus = true;
+        SnippetSegmenter segmenter = new SnippetSegmenter(analysis, stringBuilder.toString());
         SourceCodeAnalysis.CompletionInfo ci;
-        for (ci = analysis.analyzeCompletion(stringBuilder.toString());
+        for (ci = segmenter.next();
              ci.completeness().isComplete();
-             ci = analysis.analyzeCompletion(ci.remaining())) {
-            // Process snippet by snippet
+             ci = segmenter.next()) {
+            // Process snippet by snippet, skip the rest once timed out or
+            // over the CPU budget
+            if (isCutShort()) {
+                skipped.add(ci.source());
+                continue;
+            }
             for (SnippetEvent event : ev.jShell.eval(ci.source())) {
+                if ((timedOut || cancelled || cpuStopped) && event.causeSnippet() == null) {
+                    stopped.add(event.snippet().id());
+                }
                 List<Diag> diagnostics = ev.jShell.diagnostics(event.snippet()).toList();
+                holdOutput();
                 opStatus &= processEvent(ev, event, diagnostics);
+                streamSnippet(event);
             }
+            checkCpu();
         }
 
         // incomplete source code
@@ -467,8 +1247,17 @@ public class Evaluator implements Closeable {
 
     @Override
     public void close() {
-        shutdownConsumer.accept(this);
-        jShell.close();
+        // Let the in-progress evaluation, if any, complete first
+        lock.lock();
+        try {
+            closed = true;
+            shutdownConsumer.accept(this);
+            if (jShell != null) {
+                jShell.close();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     private static class DisplayEvent {
@@ -653,7 +1442,7 @@ public class Evaluator implements Closeable {
 
     public static boolean cmdList(Evaluator ev, String arg) {
         Stream<Snippet> stream = argsOptionsToSnippets(ev,
-                ev.jShell::snippets, ev::isActive, arg, "/list");
+                ev::snippets, ev::isActive, arg, "/list");
         if (stream == null) {
             return false;
         }
@@ -791,7 +1580,7 @@ public class Evaluator implements Closeable {
          * @param arg the bad snippet arg
          */
         void badSnippetErrorMsg(String arg) {
-            Stream<Snippet> est = layeredSnippetSearch(ev.jShell::snippets, arg);
+            Stream<Snippet> est = layeredSnippetSearch(ev::snippets, arg);
             if (est == null) {
                 if (ID.matcher(arg).matches()) {
                     ev.messenger.msg("err.no.snippet.with.id", arg);
@@ -1001,8 +1790,15 @@ public class Evaluator implements Closeable {
         processEvent(this, event, diagnostics);
     }
 
-    Stream<Snippet> activeSnippets() {
+    // The snippets of the session, without the warm-up snippets
+    Stream<Snippet> snippets() {
         return jShell.snippets()
+                .skip(retired)
+                .filter(sn -> !sn.id().startsWith(WARM_UP_PREFIX));
+    }
+
+    Stream<Snippet> activeSnippets() {
+        return snippets()
                 .filter(sn -> jShell.status(sn).isActive());
     }
 
@@ -1024,7 +1820,7 @@ public class Evaluator implements Closeable {
     }
 
     Stream<VarSnippet> varSnippets() {
-        return jShell.snippets()
+        return snippets()
                 .filter(sn -> sn.kind() == Snippet.Kind.VAR)
                 .map(sn -> (VarSnippet) sn);
     }
@@ -1060,7 +1856,7 @@ public class Evaluator implements Closeable {
     }
 
     private Stream<MethodSnippet> allMethodSnippets() {
-        return jShell.snippets()
+        return snippets()
                 .filter(sn -> sn.kind() == Snippet.Kind.METHOD)
                 .map(sn -> (MethodSnippet) sn);
     }
@@ -1095,7 +1891,7 @@ public class Evaluator implements Closeable {
     }
 
     Stream<TypeDeclSnippet> allTypeSnippets() {
-        return jShell.snippets()
+        return snippets()
                 .filter(sn -> sn.kind() == Snippet.Kind.TYPE_DECL)
                 .map(sn -> (TypeDeclSnippet) sn);
     }
@@ -1285,25 +2081,80 @@ public class Evaluator implements Closeable {
         return false;
     }
 
+    /**
+     * Discard the state of the session.  If the options did not change,
+     * and no thread started by the snippets is alive, the snippets are
+     * dropped, and hidden from the session, keeping the JShell and its
+     * agent; otherwise the JShell of a pooled evaluator with the options
+     * is taken over, or a new JShell is built.
+     * <p>
+     * Keeping the agent keeps its class loader: the classes of the dropped
+     * snippets stay loaded, though no longer reachable from the session,
+     * and the JVM-wide state they changed, such as the system properties,
+     * the system streams or the static state of JDK classes, is not undone.
+     */
     private boolean reset() {
-        closeState();
+        stopped.clear();
+        JShellOptions wanted = options.jShellOptions();
+        if (jShell != null && !terminated &&
+                wanted.fingerprint().equals(fingerprint) && retired < MAX_RETIRED &&
+                cpuMeter != null && cpuMeter.liveThreads() == 0) {
+            evalMessage.reset();
+            activeSnippets().toList().forEach(jShell::drop);
+            retired = (int) jShell.snippets().count();
+            keyIds.clear();
+            lastId = 0;
+            messenger.msg("msg.terminated");
+            return true;
+        }
 
-        PrintStream ops = new PrintStream(evalMessage);
-        this.jShell = JShell.builder()
-                .out(ops)
-                .err(ops)
-                .remoteVMOptions(options.remoteVmOptions())
-                .compilerOptions(options.compilerOptions())
-                .build();
-        this.jShell.onShutdown(this::onShutdown);
-        this.analysis = jShell.sourceCodeAnalysis();
-        this.messenger = new Messenger(ops);
+        Evaluator donor = donors.apply(wanted);
+        closeState();
+        if (donor != null) {
+            adopt(donor);
+        } else {
+            retired = 0;
+            this.jShell = build(builder()
+                    .remoteVMOptions(wanted.remoteVmOptions().toArray(String[]::new))
+                    .compilerOptions(wanted.compilerOptions().toArray(String[]::new)));
+            this.analysis = jShell.sourceCodeAnalysis();
+        }
+        fingerprint = wanted.fingerprint();
+        terminated = false;
+        keyIds.clear();
+        lastId = 0;
 
         return true;
     }
 
+    // Take over the JShell of the donor, a started and unbound evaluator
+    private void adopt(Evaluator donor) {
+        donor.lock.lock();
+        try {
+            donor.owner = this;
+            this.jShell = donor.jShell;
+            this.analysis = donor.analysis;
+            this.cpuMeter = donor.cpuMeter;
+            this.retired = (int) jShell.snippets().count();
+            donor.jShell = null;
+            donor.closed = true;
+        } finally {
+            donor.lock.unlock();
+        }
+    }
+
+    /**
+     * Set the source of the JShell instances taken over on reset: pooled
+     * evaluators with the given options, if any.
+     */
+    Evaluator withDonors(Function<JShellOptions, Evaluator> donors) {
+        this.donors = donors;
+        return this;
+    }
+
     private void onShutdown(JShell deadState) {
         if (deadState == jShell) {
+            terminated = true;
             messenger.msg("msg.terminated");
         }
     }
@@ -1348,6 +2199,18 @@ public class Evaluator implements Closeable {
             return selectOptions(e -> e.getKey().showOption);
         }
 
+        // The options a JShell is built with, fingerprinted in a canonical
+        // order
+        JShellOptions jShellOptions() {
+            String fingerprint = optMap.entrySet().stream()
+                    .filter(e -> e.getKey().toCompiler || e.getKey().toRemoteVm)
+                    .sorted(Map.Entry.comparingByKey())
+                    .flatMap(e -> e.getValue().stream())
+                    .collect(Collectors.joining(" "));
+            return new JShellOptions(fingerprint,
+                    List.of(remoteVmOptions()), List.of(compilerOptions()));
+        }
+
         void addAll(OptionKind kind, Collection<String> vals) {
             optMap.computeIfAbsent(kind, k -> new ArrayList<>())
                     .addAll(vals);
@@ -1478,6 +2341,15 @@ public class Evaluator implements Closeable {
     }
 
     public static boolean cmdSet(Evaluator ev, String arg) {
+        boolean accepted = set(ev, arg);
+        if (accepted && !arg.isBlank()) {
+            ev.settings.add("/set " + arg.trim());
+        }
+
+        return accepted;
+    }
+
+    private static boolean set(Evaluator ev, String arg) {
         String cmd = "/set";
         ArgTokenizer at = new ArgTokenizer(cmd, arg.trim());
         String which = subCommand(ev.messenger, cmd, at);
@@ -1503,6 +2375,8 @@ public class Evaluator implements Closeable {
             case "mode" ->
                 ev.feedback.setMode(ev.messenger, at,
                         retained -> ev.prefs.put(MODE_KEY, retained));
+            case "timeout" ->
+                ev.setTimeout(at);
             default -> {
                 ev.messenger.msg("err.arg", cmd, at.val());
                 yield false;
@@ -1510,6 +2384,31 @@ public class Evaluator implements Closeable {
         };
     }
 
+    private boolean setTimeout(ArgTokenizer at) {
+        String value = at.next();
+        if (value == null) {
+            messenger.msg("msg.set.timeout", timeout.toSeconds());
+            return true;
+        }
+
+        long seconds;
+        try {
+            seconds = Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            seconds = -1;
+        }
+        if (seconds <= 0 || at.next() != null) {
+            messenger.msg("err.set.timeout", value);
+            return false;
+        }
+
+        timeout = clamp(Duration.ofSeconds(seconds));
+        if (timeout.toSeconds() < seconds) {
+            messenger.msg("msg.set.timeout.clamped", timeout.toSeconds());
+        }
+        return true;
+    }
+
     private boolean setFeedback(ArgTokenizer at) {
         return feedback.setFeedback(messenger, at,
                 fb -> prefs.put(FEEDBACK_KEY, fb));
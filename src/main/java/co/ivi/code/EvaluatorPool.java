@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import co.ivi.code.exec.Engine;
+import co.ivi.code.exec.SharedEngine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A pool of started evaluators, kept filled by a background thread so that
+ * a new session does not pay the JShell and agent VM start-up cost on the
+ * request thread.
+ * <p>
+ * The pooled evaluators evaluate a warm-up corpus of snippets before they
+ * are taken, so that the first evaluation of the session does not run cold
+ * compiler and agent code.  The warm-up snippets are hidden from the
+ * session.
+ * <p>
+ * The sessions changing the options with /env take over, on reset, an
+ * evaluator pooled with the options.  The evaluators with options are pooled
+ * apart, by options, and the requests of each options are counted; at each
+ * rebalance, the options requested often enough share the keyed evaluators
+ * in proportion to their recent requests.  The other options are built on
+ * demand.
+ */
+@Component
+public class EvaluatorPool implements Closeable {
+    // Back-off after a failed evaluator creation, in milliseconds
+    private static final long RETRY_DELAY = 1000;
+
+    private final BlockingQueue<Evaluator> idle = new LinkedBlockingQueue<>();
+    private final Semaphore vacancies;
+    private final Thread filler;
+    private final Engine engine;
+    // The warm-up corpus, or null if disabled
+    private final String warmUp;
+    private final Duration timeout;
+    private final Duration maxTimeout;
+    private final Duration cpuRequestBudget;
+    private final Duration cpuBudget;
+    private final Duration cpuBudgetWindow;
+    private final DataSize outputLimit;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    // The options tracked at most, so that arbitrary options do not grow
+    // the statistics without bound
+    private static final int MAX_KEYS = 64;
+
+    // The evaluators and the request statistics of the options, by
+    // fingerprint
+    private final Map<String, Keyed> keyed = new ConcurrentHashMap<>();
+    private final int keyedSize;
+    private final int keyedMinRequests;
+    private final Duration keyedWindow;
+    // Released to wake up the keyed filler, when a keyed evaluator is
+    // taken or the targets change
+    private final Semaphore keyedWakeup = new Semaphore(0);
+    private final Thread keyedFiller;
+    private final Counter keyedHits;
+    private final Counter keyedMisses;
+
+    private static final class Keyed {
+        final Evaluator.JShellOptions options;
+        final BlockingQueue<Evaluator> idle = new LinkedBlockingQueue<>();
+        // The requests since the last rebalance
+        final AtomicInteger requests = new AtomicInteger();
+        // The requests, halved at each rebalance
+        double demand = 0;
+        // The evaluators to keep pooled
+        volatile int target = 0;
+
+        Keyed(Evaluator.JShellOptions options) {
+            this.options = options;
+        }
+    }
+
+    private volatile boolean closed = false;
+
+    public EvaluatorPool(@Value("${code.evaluator.pool.size:2}") int size,
+                         @Value("${code.evaluator.execution:remote}") String execution,
+                         @Value("${code.evaluator.shared.agents:4}") int agents,
+                         @Value("${code.evaluator.shared.vm-options:}") List<String> agentOptions,
+                         @Value("${code.evaluator.cds.agent-archive:}") String agentArchive,
+                         @Value("${code.evaluator.pool.warm-up:true}") boolean warmUp,
+                         @Value("${code.evaluator.pool.warm-up-corpus:}") String warmUpCorpus,
+                         @Value("${code.evaluator.timeout:10s}") Duration timeout,
+                         @Value("${code.evaluator.max-timeout:60s}") Duration maxTimeout,
+                         @Value("${code.evaluator.cpu.request-budget:0s}") Duration cpuRequestBudget,
+                         @Value("${code.evaluator.cpu.budget:0s}") Duration cpuBudget,
+                         @Value("${code.evaluator.cpu.budget-window:10m}") Duration cpuBudgetWindow,
+                         @Value("${code.evaluator.output-limit:1MB}") DataSize outputLimit,
+                         @Value("${code.evaluator.pool.keyed.size:2}") int keyedSize,
+                         @Value("${code.evaluator.pool.keyed.min-requests:3}") int keyedMinRequests,
+                         @Value("${code.evaluator.pool.keyed.window:10m}") Duration keyedWindow,
+                         MeterRegistry registry) {
+        // Map the classes of the agent VMs from the archive, if trained
+        List<String> archiveOptions = new ArrayList<>();
+        if (!agentArchive.isBlank() && Files.isRegularFile(Path.of(agentArchive))) {
+            archiveOptions.add("-XX:SharedArchiveFile=" + agentArchive);
+        }
+
+        if ("shared".equals(execution)) {
+            List<String> options = new ArrayList<>(archiveOptions);
+            options.addAll(agentOptions);
+            this.engine = new SharedEngine(agents, options);
+        } else {
+            this.engine = Engine.forName(execution)
+                    .withRemoteVMOptions(archiveOptions.toArray(String[]::new));
+        }
+        this.warmUp = warmUp ? corpus(warmUpCorpus) : null;
+        this.timeout = timeout;
+        this.maxTimeout = maxTimeout;
+        this.cpuRequestBudget = cpuRequestBudget;
+        this.cpuBudget = cpuBudget;
+        this.cpuBudgetWindow = cpuBudgetWindow;
+        this.outputLimit = outputLimit;
+        this.vacancies = new Semaphore(Math.max(0, size));
+        this.hits = registry.counter("code.evaluator.pool.requests", "result", "hit");
+        this.misses = registry.counter("code.evaluator.pool.requests", "result", "miss");
+        registry.gauge("code.evaluator.pool.idle", idle, BlockingQueue::size);
+        this.keyedSize = Math.max(0, keyedSize);
+        this.keyedMinRequests = Math.max(1, keyedMinRequests);
+        this.keyedWindow = keyedWindow;
+        this.keyedHits = registry.counter("code.evaluator.pool.keyed.requests", "result", "hit");
+        this.keyedMisses = registry.counter("code.evaluator.pool.keyed.requests", "result", "miss");
+        registry.gauge("code.evaluator.pool.keyed.idle", keyed,
+                k -> k.values().stream().mapToInt(e -> e.idle.size()).sum());
+        registry.gauge("code.evaluator.pool.keyed.keys", keyed, Map::size);
+
+        if (size > 0) {
+            this.filler = Thread.ofPlatform()
+                    .name("evaluator-pool")
+                    .daemon()
+                    .start(this::fill);
+        } else {
+            // Pooling is disabled, every request creates a new evaluator
+            this.filler = null;
+        }
+
+        if (this.keyedSize > 0) {
+            this.keyedFiller = Thread.ofPlatform()
+                    .name("evaluator-pool-keyed")
+                    .daemon()
+                    .start(this::fillKeyed);
+        } else {
+            // Evaluators with options are built on demand
+            this.keyedFiller = null;
+        }
+    }
+
+    /**
+     * Take a started evaluator from the pool, or create one on the calling
+     * thread if the pool is empty.
+     */
+    Evaluator take() {
+        Evaluator evaluator = idle.poll();
+        if (evaluator != null) {
+            vacancies.release();
+            hits.increment();
+            return evaluator;
+        }
+
+        misses.increment();
+        return create();
+    }
+
+    /**
+     * Give back an evaluator taken for a one-shot evaluation.  The state
+     * of the evaluator cannot be cleared without restarting its agent, as
+     * its threads and the JVM-wide state changed by its snippets survive a
+     * reset, so it is closed, and the pool refills in the background.
+     */
+    void recycle(Evaluator evaluator) {
+        evaluator.close();
+    }
+
+    // A pooled evaluator to donate its JShell to an evaluator resetting to
+    // the options, or null if there is none
+    private Evaluator donor(Evaluator.JShellOptions options) {
+        if (options.fingerprint().isEmpty()) {
+            Evaluator evaluator = idle.poll();
+            if (evaluator != null) {
+                vacancies.release();
+                hits.increment();
+            }
+            return evaluator;
+        }
+
+        Keyed key = keyed.get(options.fingerprint());
+        if (key == null && keyed.size() < MAX_KEYS) {
+            key = keyed.computeIfAbsent(options.fingerprint(), k -> new Keyed(options));
+        }
+        if (key == null) {
+            keyedMisses.increment();
+            return null;
+        }
+
+        key.requests.incrementAndGet();
+        Evaluator evaluator = key.idle.poll();
+        if (evaluator != null) {
+            keyedHits.increment();
+            keyedWakeup.release();
+        } else {
+            keyedMisses.increment();
+        }
+        return evaluator;
+    }
+
+    /**
+     * The number of pooled evaluators of each options, by fingerprint.
+     */
+    Map<String, Integer> keyedIdle() {
+        return keyed.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().idle.size()));
+    }
+
+    /**
+     * Share the keyed evaluators among the options requested at least the
+     * minimum number of times, in proportion to their recent requests; the
+     * evaluators of the other options are closed.
+     */
+    synchronized void share() {
+        List<Keyed> wanted = new ArrayList<>();
+        double total = 0;
+        for (Keyed key : keyed.values()) {
+            key.demand = key.demand / 2 + key.requests.getAndSet(0);
+            if (key.demand >= keyedMinRequests) {
+                wanted.add(key);
+                total += key.demand;
+            }
+        }
+
+        wanted.sort(Comparator.comparingDouble((Keyed key) -> key.demand).reversed());
+        int slots = keyedSize;
+        for (Keyed key : keyed.values()) {
+            key.target = 0;
+        }
+        for (Keyed key : wanted) {
+            int share = (int) Math.max(1, Math.round(keyedSize * key.demand / total));
+            key.target = Math.min(share, slots);
+            slots -= key.target;
+        }
+
+        for (Map.Entry<String, Keyed> entry : keyed.entrySet()) {
+            Keyed key = entry.getValue();
+            Evaluator evaluator;
+            while (key.idle.size() > key.target && (evaluator = key.idle.poll()) != null) {
+                evaluator.close();
+            }
+            // Forget the options not requested for a while
+            if (key.demand < 1 && key.idle.isEmpty()) {
+                keyed.remove(entry.getKey(), key);
+            }
+        }
+        keyedWakeup.release();
+    }
+
+    private Evaluator create() {
+        return create(Evaluator.JShellOptions.DEFAULT);
+    }
+
+    private Evaluator create(Evaluator.JShellOptions options) {
+        return new Evaluator(engine, options)
+                .withDonors(this::donor)
+                .withTimeout(timeout, maxTimeout)
+                .withCpuBudget(cpuRequestBudget, cpuBudget, cpuBudgetWindow)
+                .withOutputLimit(outputLimit.toBytes())
+                .start();
+    }
+
+    // The corpus in the file, or the built-in corpus
+    private static String corpus(String file) {
+        try {
+            if (!file.isBlank()) {
+                return Files.readString(Path.of(file));
+            }
+
+            try (InputStream in = EvaluatorPool.class.getResourceAsStream("/warm-up.jsh")) {
+                return in == null ? null :
+                        new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Cannot read the warm-up corpus", ioe);
+        }
+    }
+
+    private void fill() {
+        while (!closed) {
+            try {
+                vacancies.acquire();
+            } catch (InterruptedException ie) {
+                return;
+            }
+
+            try {
+                Evaluator evaluator = create();
+                if (warmUp != null) {
+                    evaluator.warmUp(warmUp);
+                }
+                if (closed) {
+                    evaluator.close();
+                    return;
+                }
+                idle.add(evaluator);
+            } catch (Exception ex) {
+                // Give the slot back, and retry later
+                vacancies.release();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Rebalance the keyed evaluators at each window, and create the
+    // evaluators missing in between
+    private void fillKeyed() {
+        long rebalanceAt = System.nanoTime() + keyedWindow.toNanos();
+        while (!closed) {
+            try {
+                long wait = rebalanceAt - System.nanoTime();
+                if (wait <= 0) {
+                    share();
+                    rebalanceAt = System.nanoTime() + keyedWindow.toNanos();
+                }
+
+                Keyed key = keyed.values().stream()
+                        .filter(k -> k.idle.size() < k.target)
+                        .findFirst()
+                        .orElse(null);
+                if (key == null) {
+                    keyedWakeup.tryAcquire(Math.max(1, wait), TimeUnit.NANOSECONDS);
+                    continue;
+                }
+                keyedWakeup.drainPermits();
+
+                Evaluator evaluator = create(key.options);
+                if (warmUp != null) {
+                    evaluator.warmUp(warmUp);
+                }
+                if (closed) {
+                    evaluator.close();
+                    return;
+                }
+                key.idle.add(evaluator);
+            } catch (InterruptedException ie) {
+                return;
+            } catch (Exception ex) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (filler != null) {
+            filler.interrupt();
+        }
+        if (keyedFiller != null) {
+            keyedFiller.interrupt();
+        }
+
+        List<Evaluator> evaluators = new ArrayList<>();
+        idle.drainTo(evaluators);
+        keyed.values().forEach(key -> key.idle.drainTo(evaluators));
+        evaluators.forEach(Evaluator::close);
+        engine.close();
+    }
+}
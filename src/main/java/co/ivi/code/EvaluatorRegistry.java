@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The live evaluators, keyed by session id.
+ * <p>
+ * The registry itself is lock-free for lookups; evaluations of the same
+ * session are serialized by the evaluator, and different sessions run in
+ * parallel.
+ * <p>
+ * Evaluators idle for longer than the idle timeout are evicted, and the
+ * number of live evaluators is capped by both a hard limit and a memory
+ * budget, evicting the least recently used evaluators first.  Evicted
+ * evaluators are closed in the background.
+ * <p>
+ * The replay log of an evicted evaluator is saved, and a new evaluator
+ * replays it when the session returns, so that eviction does not lose the
+ * state of the session.  With a replay log store shared by the servers,
+ * the log is saved after every evaluation, and a live evaluator is
+ * replaced if the session has moved on at another server.
+ * <p>
+ * The evaluators of destroyed sessions are closed in batches, so that a
+ * storm of session expiry does not stall the request threads.
+ * <p>
+ * The CPU time used by the evaluations is recorded, and the sessions that
+ * used the most CPU time are listed, to find the heavy tenants.
+ */
+@Component
+public class EvaluatorRegistry implements Closeable {
+    private final Map<String, Evaluator> evaluators = new ConcurrentHashMap<>();
+    private final EvaluatorPool evaluatorPool;
+    private final ReplayLogStore replayLogStore;
+
+    private final long idleTimeout;
+    private final int capacity;
+
+    private final ScheduledExecutorService sweeper;
+    private final ExecutorService closer;
+
+    // Destroyed sessions waiting for the next expiry batch
+    private final Queue<String> expired = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean expiryScheduled = new AtomicBoolean();
+    private final long expiryDelay;
+
+    private final Counter idleEvictions;
+    private final Counter capacityEvictions;
+    private final Counter sessionEvictions;
+    private final Counter staleEvictions;
+    private final Timer replays;
+    private final Timer cpuTime;
+    private final Counter throttled;
+
+    public EvaluatorRegistry(
+            EvaluatorPool evaluatorPool,
+            ReplayLogStore replayLogStore,
+            MeterRegistry registry,
+            @Value("${code.evaluator.registry.idle-timeout:30m}") Duration idleTimeout,
+            @Value("${code.evaluator.registry.sweep-interval:30s}") Duration sweepInterval,
+            @Value("${code.evaluator.registry.expiry-delay:1s}") Duration expiryDelay,
+            @Value("${code.evaluator.registry.max-live:200}") int maxLive,
+            @Value("${code.evaluator.registry.memory-budget:16GB}") DataSize memoryBudget,
+            @Value("${code.evaluator.registry.evaluator-footprint:64MB}") DataSize footprint) {
+        this.evaluatorPool = evaluatorPool;
+        this.replayLogStore = replayLogStore;
+        this.idleTimeout = idleTimeout.toNanos();
+        this.expiryDelay = expiryDelay.toMillis();
+        int limit = (int) Math.max(1, Math.min(maxLive,
+                memoryBudget.toBytes() / Math.max(1, footprint.toBytes())));
+        this.capacity = limit;
+
+        this.idleEvictions = registry.counter("code.evaluator.registry.evictions", "cause", "idle");
+        this.capacityEvictions = registry.counter("code.evaluator.registry.evictions", "cause", "capacity");
+        this.sessionEvictions = registry.counter("code.evaluator.registry.evictions", "cause", "session");
+        this.staleEvictions = registry.counter("code.evaluator.registry.evictions", "cause", "stale");
+        this.replays = registry.timer("code.evaluator.registry.replays");
+        registry.gauge("code.evaluator.registry.live", evaluators, Map::size);
+        registry.gauge("code.evaluator.registry.capacity", evaluators, m -> limit);
+        this.cpuTime = registry.timer("code.evaluator.cpu");
+        this.throttled = registry.counter("code.evaluator.cpu.throttled");
+        registry.gauge("code.evaluator.cpu.heaviest", evaluators, m -> m.values().stream()
+                .mapToLong(Evaluator::cpuTime).max().orElse(0) / 1e9);
+
+        this.closer = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("evaluator-closer-", 0).factory());
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("evaluator-sweeper").daemon().factory());
+        long interval = sweepInterval.toMillis();
+        sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the evaluator of the session, or bind a new one to the session
+     * if there is no live evaluator for it.  The new evaluator replays the
+     * log of the session, if the session was evicted.
+     */
+    Evaluator acquire(String sessionID) {
+        Evaluator evaluator = evaluators.get(sessionID);
+        if (evaluator != null) {
+            if (!replayLogStore.isShared() ||
+                    replayLogStore.version(sessionID) <= evaluator.version()) {
+                return evaluator;
+            }
+
+            // The session has moved on at another server
+            evict(sessionID, evaluator, staleEvictions);
+        }
+
+        // Do not hold the map while the evaluator is prepared.  A session
+        // closed with /exit is still mapped, and does not keep its log.
+        Evaluator created = evaluatorPool.take()
+                .bind(ev -> {
+                    if (evaluators.remove(sessionID, ev)) {
+                        replayLogStore.remove(sessionID);
+                    }
+                });
+        ReplayLog log = replayLogStore.get(sessionID);
+        if (log != null) {
+            replays.record(() -> created.replay(log));
+        }
+
+        evaluator = evaluators.putIfAbsent(sessionID, created);
+        if (evaluator != null) {
+            // Another request of the session won the race
+            created.close();
+            return evaluator;
+        }
+
+        // A shared log stays, so that other servers can still resume the
+        // session until this server saves a newer one
+        if (log != null && !replayLogStore.isShared()) {
+            replayLogStore.remove(sessionID);
+        }
+
+        if (evaluators.size() > capacity) {
+            evictLeastRecentlyUsed(created);
+        }
+
+        return created;
+    }
+
+    /**
+     * Record the CPU time of an evaluation, and save the replay log of the
+     * session if the log store is shared by the servers.
+     * <p>
+     * The evaluations of a session may get here out of order; the store
+     * keeps the newest log.  The log is written again only if the state of
+     * the session changed since the log last saved.
+     */
+    void evaluated(String sessionID, Evaluator evaluator) {
+        cpuTime.record(evaluator.lastCpuTime(), TimeUnit.NANOSECONDS);
+        if (evaluator.isThrottled()) {
+            throttled.increment();
+        }
+
+        if (replayLogStore.isShared()) {
+            ReplayLog log = evaluator.replayLog();
+            if (log == null) {
+                return;
+            }
+
+            ReplayLog saved = evaluator.savedLog();
+            if ((saved != null && saved.isSameState(log) &&
+                    replayLogStore.advance(sessionID, saved.version(), log.version())) ||
+                    replayLogStore.save(sessionID, log)) {
+                evaluator.saved(log);
+            }
+        }
+    }
+
+    /**
+     * Cancel the evaluation of the session streamed to the listener, if it
+     * is running.
+     */
+    void cancel(String sessionID, EvaluationListener listener) {
+        Evaluator evaluator = evaluators.get(sessionID);
+        if (evaluator != null) {
+            evaluator.cancel(listener);
+        }
+    }
+
+    /**
+     * The live sessions that used the most CPU time, with the CPU time
+     * used, heaviest first.
+     */
+    Map<String, Duration> heaviest(int limit) {
+        Map<String, Duration> heaviest = new LinkedHashMap<>();
+        evaluators.entrySet().stream()
+                .sorted(Comparator.comparingLong(
+                        (Map.Entry<String, Evaluator> e) -> e.getValue().cpuTime()).reversed())
+                .limit(limit)
+                .forEach(e -> heaviest.put(e.getKey(), Duration.ofNanos(e.getValue().cpuTime())));
+        return heaviest;
+    }
+
+    /**
+     * Close the evaluator of a destroyed session.  The evaluator is closed
+     * with the next expiry batch, off the calling thread.
+     */
+    void expire(String sessionID) {
+        expired.add(sessionID);
+        if (expiryScheduled.compareAndSet(false, true)) {
+            sweeper.schedule(this::expireBatch, expiryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void expireBatch() {
+        // Let sessions destroyed from now on schedule the next batch
+        expiryScheduled.set(false);
+
+        String sessionID;
+        while ((sessionID = expired.poll()) != null) {
+            replayLogStore.remove(sessionID);
+            Evaluator evaluator = evaluators.get(sessionID);
+            if (evaluator != null) {
+                evict(sessionID, evaluator, sessionEvictions);
+            }
+        }
+    }
+
+    // Evict idle evaluators, and the least recently used ones over capacity
+    private void sweep() {
+        long now = System.nanoTime();
+        evaluators.forEach((sessionID, evaluator) -> {
+            if (!evaluator.isBusy() && now - evaluator.lastAccess() > idleTimeout) {
+                evict(sessionID, evaluator, idleEvictions);
+            }
+        });
+
+        if (evaluators.size() > capacity) {
+            evictLeastRecentlyUsed(null);
+        }
+    }
+
+    private void evictLeastRecentlyUsed(Evaluator retained) {
+        List<Map.Entry<String, Evaluator>> candidates = new ArrayList<>(evaluators.entrySet());
+        candidates.removeIf(e -> e.getValue() == retained || e.getValue().isBusy());
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess()));
+
+        int excess = evaluators.size() - capacity;
+        for (int i = 0; i < candidates.size() && excess > 0; i++) {
+            Map.Entry<String, Evaluator> e = candidates.get(i);
+            if (evict(e.getKey(), e.getValue(), capacityEvictions)) {
+                excess--;
+            }
+        }
+    }
+
+    private boolean evict(String sessionID, Evaluator evaluator, Counter cause) {
+        // Save the log before unmapping, so a returning session finds it
+        if (cause == idleEvictions || cause == capacityEvictions) {
+            ReplayLog log = evaluator.replayLog();
+            if (log != null && !log.isEmpty()) {
+                replayLogStore.save(sessionID, log);
+            }
+        }
+
+        if (evaluators.remove(sessionID, evaluator)) {
+            cause.increment();
+            // Closing waits for any in-progress evaluation of the evaluator
+            closer.execute(evaluator::close);
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        evaluators.forEach((sessionID, evaluator) -> {
+            if (evaluators.remove(sessionID, evaluator)) {
+                closer.execute(evaluator::close);
+            }
+        });
+        closer.close();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keep the replay logs in the memory of this server, dropping the least
+ * recently used logs over the limit.
+ */
+@Component
+@ConditionalOnProperty(name = "code.evaluator.replay.store", havingValue = "memory", matchIfMissing = true)
+public class MemoryReplayLogStore implements ReplayLogStore {
+    private final Map<String, ReplayLog> logs;
+
+    public MemoryReplayLogStore(
+            @Value("${code.evaluator.replay.max-logs:10000}") int maxLogs) {
+        this.logs = Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, ReplayLog> eldest) {
+                        return size() > maxLogs;
+                    }
+                });
+    }
+
+    @Override
+    public boolean save(String sessionID, ReplayLog log) {
+        return logs.merge(sessionID, log, (saved, newer) ->
+                saved.version() < newer.version() ? newer : saved) == log;
+    }
+
+    @Override
+    public ReplayLog get(String sessionID) {
+        return logs.get(sessionID);
+    }
+
+    @Override
+    public void remove(String sessionID) {
+        logs.remove(sessionID);
+    }
+}
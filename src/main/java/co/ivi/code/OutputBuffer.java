@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+/**
+ * The output of an evaluation, held in fixed-size chunks up to a limit.
+ * <p>
+ * The output over the limit is dropped, and the text of the buffer ends
+ * with a truncation marker instead.  The chunks are taken from a pool
+ * shared by the evaluators, and returned to it when the buffer is reset,
+ * so that a burst of output does not stay allocated for the life of the
+ * session.
+ * <p>
+ * The output of a streamed evaluation is drained as it is produced, so only
+ * the output not yet sent is held; the limit applies to the output since
+ * the reset, drained or not.
+ * <p>
+ * The status messages of the evaluator, such as a timeout, are written
+ * apart from the limit, and follow the output and the truncation marker,
+ * so that they are not dropped with the output over the limit.
+ */
+final class OutputBuffer extends OutputStream {
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    // The room of the status messages, in bytes
+    private static final int STATUS_LIMIT = 16 * 1024;
+
+    // The chunks retained by the pool, 8MB in total
+    private static final int POOL_CAPACITY = 1024;
+    private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final LongFunction<String> marker;
+
+    // The output limit, the bytes written and dropped since the reset, and
+    // the bytes held in the chunks
+    private long limit;
+    private long count = 0;
+    private long dropped = 0;
+    private int held = 0;
+
+    // Whether the status messages are being written, and the messages
+    private boolean writingStatus = false;
+    private final ByteArrayOutputStream status = new ByteArrayOutputStream();
+
+    /**
+     * @param limit the output limit in bytes
+     * @param marker the truncation marker for the number of bytes dropped
+     */
+    OutputBuffer(long limit, LongFunction<String> marker) {
+        this.limit = limit;
+        this.marker = marker;
+    }
+
+    synchronized void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Write the status messages of the evaluator, apart from the output.
+     */
+    synchronized void writeStatus(Runnable messages) {
+        writingStatus = true;
+        try {
+            messages.run();
+        } finally {
+            writingStatus = false;
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (writingStatus) {
+            if (status.size() < STATUS_LIMIT) {
+                status.write(b);
+            }
+            return;
+        }
+        if (count >= limit) {
+            dropped++;
+            return;
+        }
+
+        int offset = held % CHUNK_SIZE;
+        if (offset == 0) {
+            chunks.add(take());
+        }
+        chunks.getLast()[offset] = (byte) b;
+        held++;
+        count++;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (writingStatus) {
+            status.write(b, off, Math.min(len, STATUS_LIMIT - status.size()));
+            return;
+        }
+        int accepted = (int) Math.min(len, limit - count);
+        if (accepted < len) {
+            dropped += len - Math.max(0, accepted);
+        }
+
+        while (accepted > 0) {
+            int offset = held % CHUNK_SIZE;
+            if (offset == 0) {
+                chunks.add(take());
+            }
+            int n = Math.min(accepted, CHUNK_SIZE - offset);
+            System.arraycopy(b, off, chunks.getLast(), offset, n);
+            off += n;
+            accepted -= n;
+            held += n;
+            count += n;
+        }
+    }
+
+    synchronized boolean isTruncated() {
+        return dropped > 0;
+    }
+
+    /**
+     * Discard the output, and return the chunks to the pool.
+     */
+    synchronized void reset() {
+        chunks.forEach(OutputBuffer::recycle);
+        chunks.clear();
+        count = 0;
+        dropped = 0;
+        held = 0;
+        status.reset();
+    }
+
+    /**
+     * Take the output held so far, up to the last complete character, and
+     * return the chunks to the pool.
+     */
+    synchronized String drain() {
+        // Keep the bytes of a character not completely written yet
+        byte[] partial = new byte[partial()];
+        for (int i = 0; i < partial.length; i++) {
+            partial[i] = byteAt(held - partial.length + i);
+        }
+        String text = decode(held - partial.length, "");
+
+        chunks.forEach(OutputBuffer::recycle);
+        chunks.clear();
+        held = partial.length;
+        if (held > 0) {
+            chunks.add(take());
+            System.arraycopy(partial, 0, chunks.getFirst(), 0, held);
+        }
+
+        return text;
+    }
+
+    /**
+     * The output held, decoded as UTF-8 straight from the chunks, followed
+     * by the truncation marker if any output was dropped, and the status
+     * messages.
+     */
+    @Override
+    public synchronized String toString() {
+        return decode(held, (dropped > 0 ? marker.apply(dropped) : "") +
+                status.toString(StandardCharsets.UTF_8));
+    }
+
+    private String decode(int size, String tail) {
+        if (chunks.size() == 1 && tail.isEmpty()) {
+            return new String(chunks.getFirst(), 0, size, StandardCharsets.UTF_8);
+        }
+
+        // Decoding does not produce more chars than bytes
+        char[] text = new char[size + tail.length()];
+        int length = 0;
+        List<InputStream> streams = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size() && i * CHUNK_SIZE < size; i++) {
+            streams.add(new ByteArrayInputStream(chunks.get(i), 0,
+                    Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE)));
+        }
+        try (Reader reader = new InputStreamReader(new SequenceInputStream(
+                Collections.enumeration(streams)), StandardCharsets.UTF_8)) {
+            int n;
+            while (length < size &&
+                    (n = reader.read(text, length, size - length)) > 0) {
+                length += n;
+            }
+        } catch (IOException ioe) {
+            // Not thrown by in-memory streams
+            throw new UncheckedIOException(ioe);
+        }
+
+        tail.getChars(0, tail.length(), text, length);
+        return new String(text, 0, length + tail.length());
+    }
+
+    // The number of trailing bytes of an incomplete UTF-8 character
+    private int partial() {
+        for (int i = 1; i <= Math.min(3, held); i++) {
+            int b = byteAt(held - i) & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                // The lead byte, and the length of its character
+                int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+                return length > i ? i : 0;
+            }
+        }
+        return 0;
+    }
+
+    private byte byteAt(int index) {
+        return chunks.get(index / CHUNK_SIZE)[index % CHUNK_SIZE];
+    }
+
+    private static byte[] take() {
+        byte[] chunk = POOL.poll();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+
+        POOLED.decrementAndGet();
+        return chunk;
+    }
+
+    private static void recycle(byte[] chunk) {
+        if (POOLED.incrementAndGet() <= POOL_CAPACITY) {
+            POOL.add(chunk);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keep the replay logs in Redis, shared by the servers, so that any
+ * server can take over a session.
+ * <p>
+ * The log of a session is a Redis hash, with the version of the log and
+ * the encoded log, so that the version can be checked without reading the
+ * log.  The log expires if the session is not used for the time to live.
+ * <p>
+ * The log is written with its version and its time to live at once, by a
+ * script, and only if newer than the log saved: the logs of a session may
+ * be saved out of order.
+ */
+@Component
+@ConditionalOnProperty(name = "code.evaluator.replay.store", havingValue = "redis")
+public class RedisReplayLogStore implements ReplayLogStore {
+    static final String KEY_PREFIX = "code:replay:";
+    private static final String VERSION = "version";
+    private static final String LOG = "log";
+
+    // KEYS[1] is the hash of the log; ARGV the version, the encoded log,
+    // and the time to live in milliseconds
+    private static final RedisScript<Long> SAVE = new DefaultRedisScript<>("""
+            local saved = tonumber(redis.call('HGET', KEYS[1], 'version') or '-1')
+            if saved >= tonumber(ARGV[1]) then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], 'version', ARGV[1], 'log', ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            return 1
+            """, Long.class);
+
+    // KEYS[1] is the hash of the log; ARGV the version saved, the new
+    // version, and the time to live in milliseconds
+    private static final RedisScript<Long> ADVANCE = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'version') ~= ARGV[1] then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], 'version', ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final Duration ttl;
+
+    public RedisReplayLogStore(StringRedisTemplate redis,
+            @Value("${code.evaluator.replay.ttl:30m}") Duration ttl) {
+        this.redis = redis;
+        this.ttl = ttl;
+    }
+
+    private HashOperations<String, String, String> hash() {
+        return redis.opsForHash();
+    }
+
+    @Override
+    public boolean save(String sessionID, ReplayLog log) {
+        Long saved = redis.execute(SAVE, List.of(KEY_PREFIX + sessionID),
+                Long.toString(log.version()),
+                Base64.getEncoder().encodeToString(log.encode()),
+                Long.toString(ttl.toMillis()));
+        return saved != null && saved == 1;
+    }
+
+    @Override
+    public boolean advance(String sessionID, long from, long to) {
+        Long advanced = redis.execute(ADVANCE, List.of(KEY_PREFIX + sessionID),
+                Long.toString(from), Long.toString(to), Long.toString(ttl.toMillis()));
+        return advanced != null && advanced == 1;
+    }
+
+    @Override
+    public ReplayLog get(String sessionID) {
+        List<String> fields = hash().multiGet(KEY_PREFIX + sessionID, List.of(VERSION, LOG));
+        if (fields.get(0) == null || fields.get(1) == null) {
+            return null;
+        }
+
+        // The version may have moved on since the log was written
+        try {
+            return ReplayLog.decode(Base64.getDecoder().decode(fields.get(1)))
+                    .withVersion(Long.parseLong(fields.get(0)));
+        } catch (IllegalArgumentException iae) {
+            // Written by an incompatible server, start over
+            return null;
+        }
+    }
+
+    @Override
+    public long version(String sessionID) {
+        String version = hash().get(KEY_PREFIX + sessionID, VERSION);
+        return version != null ? Long.parseLong(version) : -1;
+    }
+
+    @Override
+    public void remove(String sessionID) {
+        redis.delete(KEY_PREFIX + sessionID);
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+}
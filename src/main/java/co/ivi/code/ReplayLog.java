@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The state of a session, which a new evaluator replays to take over the
+ * session: the /env options, the accepted /set commands, and the active
+ * snippets in the order they were accepted.
+ *
+ * @param version the number of evaluations of the session
+ * @param options the /env options, by option kind
+ * @param settings the /set commands
+ * @param snippets the active snippets
+ */
+public record ReplayLog(long version,
+                        Map<String, List<String>> options,
+                        List<String> settings,
+                        List<Entry> snippets) {
+    // The format of the encoded log
+    private static final int FORMAT = 1;
+
+    /**
+     * One evaluation of the replay log.  A declaration of several
+     * variables creates several snippets, with the same source.
+     *
+     * @param source the source of the snippets
+     * @param ids the snippet ids
+     * @param name the temporary variable name of an expression, or null
+     */
+    public record Entry(String source, List<String> ids, String name) {
+    }
+
+    boolean isEmpty() {
+        return options.isEmpty() && settings.isEmpty() && snippets.isEmpty();
+    }
+
+    /**
+     * The same log, of another version.
+     */
+    ReplayLog withVersion(long version) {
+        return new ReplayLog(version, options, settings, snippets);
+    }
+
+    /**
+     * Whether the log replays the same state as the other log, whatever
+     * their versions.
+     */
+    boolean isSameState(ReplayLog other) {
+        return options.equals(other.options) && settings.equals(other.settings) &&
+                snippets.equals(other.snippets);
+    }
+
+    /**
+     * Encode the log in a compact binary form, for the replay log stores
+     * shared by servers.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeByte(FORMAT);
+            out.writeLong(version);
+            out.writeInt(options.size());
+            for (Map.Entry<String, List<String>> option : options.entrySet()) {
+                writeString(out, option.getKey());
+                writeStrings(out, option.getValue());
+            }
+            writeStrings(out, settings);
+            out.writeInt(snippets.size());
+            for (Entry entry : snippets) {
+                writeString(out, entry.source());
+                writeStrings(out, entry.ids());
+                out.writeBoolean(entry.name() != null);
+                if (entry.name() != null) {
+                    writeString(out, entry.name());
+                }
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a log encoded with {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the log is not well encoded
+     */
+    public static ReplayLog decode(byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(encoded)))) {
+            int format = in.readByte();
+            if (format != FORMAT) {
+                throw new IllegalArgumentException("Unknown replay log format: " + format);
+            }
+            long version = in.readLong();
+            Map<String, List<String>> options = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                options.put(readString(in), readStrings(in));
+            }
+            List<String> settings = readStrings(in);
+            List<Entry> snippets = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                String source = readString(in);
+                List<String> ids = readStrings(in);
+                String name = in.readBoolean() ? readString(in) : null;
+                snippets.add(new Entry(source, ids, name));
+            }
+
+            return new ReplayLog(version, options, settings, List.copyOf(snippets));
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Malformed replay log", ioe);
+        }
+    }
+
+    // Sources may be longer than DataOutput.writeUTF() allows
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        List<String> values = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            values.add(readString(in));
+        }
+        return List.copyOf(values);
+    }
+}
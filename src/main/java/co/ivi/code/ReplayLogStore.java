@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+/**
+ * The replay logs of the sessions whose evaluators were evicted.
+ */
+public interface ReplayLogStore {
+    /**
+     * Save the replay log of the session, unless the log saved is of the
+     * same version or newer.
+     *
+     * @return whether the log was saved
+     */
+    boolean save(String sessionID, ReplayLog log);
+
+    /**
+     * Move the saved replay log of the session on to a newer version of
+     * the same state, without writing the log again.
+     *
+     * @return whether the version was moved on; false if the log saved is
+     *         not of the version from, and the log should be saved instead
+     */
+    default boolean advance(String sessionID, long from, long to) {
+        return false;
+    }
+
+    /**
+     * Get the replay log of the session, or null if there is none.
+     */
+    ReplayLog get(String sessionID);
+
+    void remove(String sessionID);
+
+    /**
+     * Get the version of the replay log of the session, or -1 if there is
+     * none.
+     */
+    default long version(String sessionID) {
+        ReplayLog log = get(sessionID);
+        return log != null ? log.version() : -1;
+    }
+
+    /**
+     * Whether the store is shared by the servers.  The log of a session in
+     * a shared store is saved after every evaluation, so that any server
+     * can take over the session.
+     */
+    default boolean isShared() {
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import co.ivi.code.eval.Feedback;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache the results of the one-shot evaluations the callers mark as
+ * deterministic, so that the same source is not evaluated again.
+ * <p>
+ * The results are keyed by a SHA-256 hash of the source, with the feedback
+ * mode and the /env options the evaluation starts with.  The least recently
+ * used results over the limit are dropped, and the results expire after the
+ * time to live.  The results of evaluations cut short are not cached.
+ */
+@Component
+public class ResultCache {
+    private record Entry(EvaluationResult result, long expiresAt) {
+    }
+
+    // The feedback mode and the options of a clean evaluator
+    private static final String INITIAL_STATE = Feedback.defaultMode() + "\0" +
+            Evaluator.JShellOptions.DEFAULT.fingerprint() + "\0";
+
+    private final Map<String, Entry> results;
+    private final long ttl;
+    private final boolean enabled;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ResultCache(@Value("${code.cache.max-entries:10000}") int maxEntries,
+                       @Value("${code.cache.ttl:10m}") Duration ttl,
+                       MeterRegistry registry) {
+        this.results = Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                        return size() > maxEntries;
+                    }
+                });
+        this.ttl = ttl.toNanos();
+        this.enabled = maxEntries > 0 && ttl.isPositive();
+        this.hits = registry.counter("code.cache.requests", "result", "hit");
+        this.misses = registry.counter("code.cache.requests", "result", "miss");
+        registry.gauge("code.cache.size", results, Map::size);
+    }
+
+    /**
+     * The cached result of the source, or null if none.
+     */
+    EvaluationResult get(String source) {
+        if (!enabled) {
+            return null;
+        }
+
+        String key = key(source);
+        Entry entry = results.get(key);
+        if (entry != null && entry.expiresAt() - System.nanoTime() <= 0) {
+            results.remove(key, entry);
+            entry = null;
+        }
+
+        (entry == null ? misses : hits).increment();
+        return entry == null ? null : entry.result();
+    }
+
+    /**
+     * Cache the result of the source, unless the evaluation was cut short.
+     */
+    void put(String source, EvaluationResult result) {
+        if (!enabled || result.cutShort()) {
+            return;
+        }
+
+        results.put(key(source), new Entry(result, System.nanoTime() + ttl));
+    }
+
+    private static String key(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(INITIAL_STATE.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(
+                    digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
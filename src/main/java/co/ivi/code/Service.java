@@ -8,34 +8,142 @@ package co.ivi.code;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.boot.ApplicationArguments;
 
-import java.util.HashMap;
-
 @org.springframework.stereotype.Service
 public class Service {
-    private final static String NAME_EV = "code-evaluator";
-    private final HashMap<String, Evaluator> evaluatorMap = new HashMap<>();
+    final static String NAME_EV = "code-evaluator";
+    private final EvaluatorRegistry evaluatorRegistry;
+    private final EvaluatorPool evaluatorPool;
+    private final ResultCache resultCache;
 
-    public Service(ApplicationArguments args) {
+    public Service(ApplicationArguments args,
+                   EvaluatorRegistry evaluatorRegistry, EvaluatorPool evaluatorPool,
+                   ResultCache resultCache) {
         // System.out.println("Application arguments are available");
+        this.evaluatorRegistry = evaluatorRegistry;
+        this.evaluatorPool = evaluatorPool;
+        this.resultCache = resultCache;
     }
 
     public EvaluationResult evaluateCode(String code, HttpSession session) {
-        Evaluator evaluator = null;
+        return evaluateCode(code, sessionID(session));
+    }
+
+    /**
+     * The id of the evaluator of the session.  The session should not be
+     * used once the request is handed over to another thread, so the id is
+     * resolved on the request thread.
+     */
+    public String sessionID(HttpSession session) {
         if (session.getAttribute(NAME_EV) instanceof String id) {
-            evaluator = evaluatorMap.get(id);
+            return id;
         }
 
-        if (evaluator == null) {
-            String sessionID = session.getId();
-            try {
-                evaluator = new Evaluator(ev -> evaluatorMap.remove(sessionID)).start();
-            } catch (Exception ex) {
-                return new EvaluationResult(false, "Service load failed!");
+        String sessionID = session.getId();
+        session.setAttribute(NAME_EV, sessionID);
+        return sessionID;
+    }
+
+    /**
+     * Evaluate the code with the evaluator of the session id, or with a
+     * one-off evaluator if the id is null.
+     */
+    public EvaluationResult evaluateCode(String code, String sessionID) {
+        return evaluateCode(code, sessionID, null);
+    }
+
+    /**
+     * Evaluate the code as {@link #evaluateCode(String, String)} does,
+     * sending the output to the listener as it is produced.
+     */
+    public EvaluationResult evaluateCode(String code, String sessionID,
+                                         EvaluationListener listener) {
+        try {
+            if (sessionID == null) {
+                // No session to retain the evaluator for
+                return evaluateBorrowed(code, listener);
             }
-            evaluatorMap.put(session.getId(), evaluator);
-            session.setAttribute(NAME_EV, session.getId());
+
+            EvaluationResult result;
+            do {
+                // Retry if the evaluator was closed while waiting for it
+                Evaluator evaluator = evaluatorRegistry.acquire(sessionID);
+                result = evaluator.evaluate(code, listener);
+                if (result != null) {
+                    evaluatorRegistry.evaluated(sessionID, evaluator);
+                }
+            } while (result == null);
+
+            return result;
+        } catch (Exception ex) {
+            return new EvaluationResult(false, "Service load failed!");
         }
+    }
+
+    /**
+     * Evaluate the code with a clean evaluator borrowed from the pool, with
+     * no session: nothing of the evaluation is retained, and the evaluator
+     * is recycled once the code is evaluated.
+     */
+    public EvaluationResult evaluateOnce(String code) {
+        return evaluateCode(code, (String) null);
+    }
+
+    /**
+     * Evaluate the code as {@link #evaluateOnce(String)} does.  If the
+     * code is deterministic, as the caller tells, the result is cached for
+     * {@link #cachedResult(String)}.
+     */
+    public EvaluationResult evaluateOnce(String code, boolean cacheable) {
+        if (!cacheable) {
+            return evaluateOnce(code);
+        }
+
+        EvaluationResult result;
+        try {
+            result = evaluateBorrowed(code, null);
+        } catch (Exception ex) {
+            return new EvaluationResult(false, "Service load failed!");
+        }
+        resultCache.put(code, result);
+        return result;
+    }
+
+    /**
+     * The cached result of a deterministic one-shot evaluation of the
+     * code, or null if none.  No evaluator is involved.
+     */
+    public EvaluationResult cachedResult(String code) {
+        return resultCache.get(code);
+    }
+
+    private EvaluationResult evaluateBorrowed(String code, EvaluationListener listener) {
+        EvaluationResult result;
+        do {
+            // Retry if the pooled evaluator was closed before it was taken
+            Evaluator evaluator = evaluatorPool.take();
+            try {
+                result = evaluator.evaluate(code, listener);
+            } finally {
+                evaluatorPool.recycle(evaluator);
+            }
+        } while (result == null);
+
+        return result;
+    }
+
+    /**
+     * Cancel the evaluation of the session id streamed to the listener, if
+     * it is running; not another evaluation of the session.
+     */
+    public void cancel(String sessionID, EvaluationListener listener) {
+        evaluatorRegistry.cancel(sessionID, listener);
+    }
 
-        return evaluator.evaluate(code);
+    /**
+     * Close the evaluator of a session id not bound to an HTTP session,
+     * once it is no longer used.
+     */
+    public void release(String sessionID) {
+        evaluatorRegistry.expire(sessionID);
     }
 }
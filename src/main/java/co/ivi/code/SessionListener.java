@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Close the evaluator of a session when the session expires or is
+ * invalidated.
+ * <p>
+ * The listener is registered with the servlet container, and with Spring
+ * Session, which forwards its session destroyed events to the
+ * HttpSessionListener beans.
+ */
+@Component
+public class SessionListener implements HttpSessionListener {
+    private final EvaluatorRegistry evaluatorRegistry;
+
+    public SessionListener(EvaluatorRegistry evaluatorRegistry) {
+        this.evaluatorRegistry = evaluatorRegistry;
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        HttpSession session = event.getSession();
+        String sessionID = session.getAttribute(Service.NAME_EV) instanceof String id
+                ? id
+                : session.getId();
+        if (sessionID != null) {
+            evaluatorRegistry.expire(sessionID);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jdk.jshell.SourceCodeAnalysis;
+import jdk.jshell.SourceCodeAnalysis.CompletionInfo;
+import jdk.jshell.SourceCodeAnalysis.Completeness;
+
+import java.util.Set;
+
+/**
+ * Split a source into snippets, walking the source once.
+ * <p>
+ * Analyzing the completion of the remaining source, snippet after snippet,
+ * copies and scans the remaining source for each snippet, which is
+ * quadratic in the size of the source.  Instead, the source is scanned for
+ * the likely ends of snippets: a semicolon, or a closing brace, out of any
+ * bracket, string or comment.  Only the segment up to the next likely end
+ * is analyzed.  If the segment is not a complete snippet on its own, the
+ * remaining source is analyzed as a whole, as before.
+ * <p>
+ * The snippets are the same as the snippets of the completion analysis of
+ * the remaining source, except for source that does not parse, which may
+ * fail in smaller snippets.
+ */
+final class SnippetSegmenter {
+    // The words continuing a statement after a semicolon or a closing brace
+    private static final Set<String> CONTINUATIONS =
+            Set.of("else", "catch", "finally", "while", "instanceof");
+
+    private final SourceCodeAnalysis analysis;
+    private final String source;
+    // The start of the next snippet
+    private int start = 0;
+
+    SnippetSegmenter(SourceCodeAnalysis analysis, String source) {
+        this.analysis = analysis;
+        this.source = source;
+    }
+
+    /**
+     * The index in the source of the next snippet, or of the incomplete
+     * remaining source.
+     */
+    int offset() {
+        return start;
+    }
+
+    /**
+     * The completion of the next snippet, as analyzed on the remaining
+     * source.  Once the completion is not complete, there is no more
+     * snippet.
+     */
+    CompletionInfo next() {
+        int end = boundary(start);
+        if (end < source.length()) {
+            CompletionInfo ci = analysis.analyzeCompletion(source.substring(start, end));
+            if (ci.completeness() == Completeness.COMPLETE) {
+                start = end - ci.remaining().length();
+                return ci;
+            }
+        }
+
+        // The snippet may go on past the segment, or is the last one
+        CompletionInfo ci = analysis.analyzeCompletion(source.substring(start));
+        if (ci.completeness().isComplete()) {
+            start = source.length() - ci.remaining().length();
+        }
+        return ci;
+    }
+
+    // The index past the likely end of the snippet from the index, or the
+    // length of the source if none
+    private int boundary(int from) {
+        int depth = 0;
+        int i = from;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            switch (c) {
+                case '/' -> {
+                    i = skipComment(i);
+                    continue;
+                }
+                case '"' -> {
+                    i = source.startsWith("\"\"\"", i) ?
+                            skipQuoted(i + 3, "\"\"\"") : skipQuoted(i + 1, "\"");
+                    continue;
+                }
+                case '\'' -> {
+                    i = skipQuoted(i + 1, "'");
+                    continue;
+                }
+                case '(', '[', '{' -> depth++;
+                case ')', ']' -> depth = Math.max(0, depth - 1);
+                case '}' -> {
+                    if (depth == 1 && endsSnippet(i + 1, true)) {
+                        return end(i + 1);
+                    }
+                    depth = Math.max(0, depth - 1);
+                }
+                case ';' -> {
+                    if (depth == 0 && endsSnippet(i + 1, false)) {
+                        return end(i + 1);
+                    }
+                }
+                default -> {
+                }
+            }
+            i++;
+        }
+
+        return source.length();
+    }
+
+    // The end of the segment at the index; the trailing white space and
+    // comments of the source go with the last snippet
+    private int end(int index) {
+        return skipBlank(index) < source.length() ? index : source.length();
+    }
+
+    // Whether the source from the index starts a new snippet.  After a
+    // closing brace, only a word or an annotation does: anything else may
+    // go on with the expression or the statement of the brace.
+    private boolean endsSnippet(int index, boolean brace) {
+        int i = skipBlank(index);
+        if (i >= source.length()) {
+            return true;
+        }
+
+        char c = source.charAt(i);
+        if (!Character.isJavaIdentifierStart(c)) {
+            return !brace || c == '@';
+        }
+
+        int end = i + 1;
+        while (end < source.length() && Character.isJavaIdentifierPart(source.charAt(end))) {
+            end++;
+        }
+        return !CONTINUATIONS.contains(source.substring(i, end));
+    }
+
+    // The index of the next character out of white space and comments
+    private int skipBlank(int index) {
+        int i = index;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && skipComment(i) != i + 1) {
+                i = skipComment(i);
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    // The index past the comment at the index, or past the slash if it is
+    // not a comment
+    private int skipComment(int index) {
+        if (source.startsWith("//", index)) {
+            int end = source.indexOf('\n', index + 2);
+            return end < 0 ? source.length() : end + 1;
+        }
+        if (source.startsWith("/*", index)) {
+            int end = source.indexOf("*/", index + 2);
+            return end < 0 ? source.length() : end + 2;
+        }
+        return index + 1;
+    }
+
+    // The index past the closing quote of the literal from the index.  An
+    // unterminated string or character literal ends at the end of the line.
+    private int skipQuoted(int index, String quote) {
+        int i = index;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (source.startsWith(quote, i)) {
+                return i + quote.length();
+            } else if (c == '\n' && quote.length() == 1) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return source.length();
+    }
+}
@@ -26,6 +26,8 @@
 
 package co.ivi.code.eval;
 
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.function.Consumer;
@@ -61,6 +63,10 @@ public class Feedback {
             FormatUnresolved.UNRESOLVED0,
             FormatErrors.NO_ERROR);
 
+    // The predefined modes, parsed once from the start-up feedback script.
+    // The modes are read-only, and shared by all the Feedback instances.
+    private static final Feedback PREDEFINED = predefined();
+
     // Current mode -- initial value is placeholder during start-up
     private Mode mode = new Mode("");
 
@@ -73,6 +79,49 @@ public class Feedback {
     // Mapping of mode names to encoded retained mode
     private final Map<String, String> retainedMap = new HashMap<>();
 
+    /**
+     * Create a feedback with the predefined modes, in the default mode.
+     */
+    public Feedback() {
+        modeMap.putAll(PREDEFINED.modeMap);
+        mode = PREDEFINED.mode;
+    }
+
+    /**
+     * The name of the mode a new feedback is in.
+     */
+    public static String defaultMode() {
+        return PREDEFINED.mode.name;
+    }
+
+    // Placeholder feedback to parse the predefined modes
+    private Feedback(Void placeholder) {
+    }
+
+    private static Feedback predefined() {
+        Feedback feedback = new Feedback(null);
+        Messenger messenger = new Messenger(new PrintStream(OutputStream.nullOutputStream()));
+        Messenger.ResourceKeys.resource("startup.feedback").lines()
+                .filter(line -> line.startsWith("/set "))
+                .forEach(line -> {
+                    ArgTokenizer at = new ArgTokenizer("/set", line.substring(5).trim());
+                    String which = at.next();
+                    switch (which) {
+                        case "mode" -> feedback.setMode(messenger, at, retained -> {});
+                        case "format" -> feedback.setFormat(messenger, at);
+                        case "truncation" -> feedback.setTruncation(messenger, at);
+                        case "feedback" -> feedback.setFeedback(messenger, at, retained -> {});
+                        default -> throw new IllegalStateException(
+                                "Unexpected start-up feedback command: " + line);
+                    }
+                });
+
+        // These predefined modes are read-only
+        feedback.modeMap.values()
+                .forEach(m -> m.readOnly = true);
+        return feedback;
+    }
+
     public String format(FormatCase fc, FormatAction fa, FormatWhen fw,
                          FormatResolve fr, FormatUnresolved fu, FormatErrors fe,
                          String name, String type, String value, String unresolved, Stream<String> errorLines) {
@@ -111,11 +160,6 @@ public class Feedback {
         return new Setter(messenger, new ArgTokenizer("<init>", "")).restoreEncodedModes(encoded);
     }
 
-    public void markModesReadOnly() {
-        modeMap.values()
-                .forEach(m -> m.readOnly = true);
-    }
-
     /**
      * Holds all the context of a mode
      */
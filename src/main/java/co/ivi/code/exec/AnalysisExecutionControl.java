@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.spi.ExecutionControl;
+
+/**
+ * Drop the classes of the snippets, and run nothing.  The variables of the
+ * snippets have no value, and the expressions evaluate to nothing.
+ */
+final class AnalysisExecutionControl implements ExecutionControl {
+    @Override
+    public void load(ClassBytecodes[] cbcs) {
+    }
+
+    @Override
+    public void redefine(ClassBytecodes[] cbcs) {
+    }
+
+    @Override
+    public String invoke(String className, String methodName) {
+        return "";
+    }
+
+    @Override
+    public String varValue(String className, String varName) {
+        return "";
+    }
+
+    @Override
+    public void addToClasspath(String path) {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public Object extensionCommand(String command, Object arg)
+            throws NotImplementedException {
+        throw new NotImplementedException("Not supported: " + command);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.util.Map;
+
+/**
+ * No execution: the snippets are compiled by JShell, but their classes are
+ * neither loaded nor run.
+ */
+final class AnalysisExecutionProvider implements ExecutionControlProvider {
+    @Override
+    public String name() {
+        return "session-analysis";
+    }
+
+    @Override
+    public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters) {
+        return new AnalysisExecutionControl();
+    }
+}
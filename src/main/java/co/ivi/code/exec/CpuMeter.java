@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControl.ClassBytecodes;
+import jdk.jshell.spi.ExecutionControl.ExecutionControlException;
+import jdk.jshell.spi.ExecutionControl.NotImplementedException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+
+/**
+ * The CPU time used by the snippets of a session, as measured in the agent
+ * executing them.
+ * <p>
+ * The agents of the local and shared engines account the CPU time of the
+ * snippet threads of each session, and report it with the {@link #CPU_TIME}
+ * extension command.  The JShell remote agent does not know the command;
+ * as it hosts a single session, the CPU time of the agent VM is reported
+ * instead, as read from the agent process, which is found by a probe class
+ * loaded into the agent.  The CPU time of the agent VM includes its
+ * compilation and garbage collection, which the snippets of the session
+ * cause as well.
+ * <p>
+ * The CPU time of a session can also be read while the agent is executing
+ * a snippet, to stop the snippet once over budget.
+ * <p>
+ * The meter also counts the threads started by the snippets of a session
+ * and still alive, which a reset keeping the agent would not stop.
+ */
+public final class CpuMeter {
+    /**
+     * The extension command reporting the CPU time of the session, in
+     * nanoseconds, as a {@code Long}.
+     */
+    public static final String CPU_TIME = "cpu-time";
+
+    /**
+     * The extension command reporting the threads started by the snippets
+     * of the session and still alive, as an {@code Integer}.
+     */
+    public static final String LIVE_THREADS = "live-threads";
+
+    private static final ClassBytecodes PROBE = probe();
+
+    /**
+     * An execution control reporting the CPU time of its session, even
+     * while the agent is executing.
+     */
+    interface Sampled {
+        /**
+         * The CPU time of the session so far, in nanoseconds, or -1 if it
+         * is not available.
+         */
+        long sampleCpuTime();
+    }
+
+    private final ExecutionControl control;
+    private boolean probing = false;
+    // The remote agent process, once probed, if its CPU time can be read
+    private volatile ProcessHandle agent;
+
+    public CpuMeter(ExecutionControl control) {
+        this.control = control;
+    }
+
+    /**
+     * The CPU time of the session so far, in nanoseconds, or -1 if it is
+     * not available.  Not to be called while the agent is executing.
+     */
+    public long cpuTime() {
+        try {
+            if (!probing) {
+                try {
+                    return (Long) control.extensionCommand(CPU_TIME, null);
+                } catch (NotImplementedException ex) {
+                    loadProbe();
+                }
+            }
+
+            if (agent != null) {
+                return agentCpuTime(agent);
+            }
+            return Long.parseLong(control.invoke(PROBE.name(), "cpuTime"));
+        } catch (ExecutionControlException | RuntimeException ex) {
+            // The agent is gone, or cannot tell
+            return -1;
+        }
+    }
+
+    /**
+     * The threads started by the snippets of the session and still alive,
+     * or -1 if not known.  Not to be called while the agent is executing.
+     */
+    public int liveThreads() {
+        try {
+            if (!probing) {
+                try {
+                    return (Integer) control.extensionCommand(LIVE_THREADS, null);
+                } catch (NotImplementedException ex) {
+                    loadProbe();
+                }
+            }
+            return Integer.parseInt(control.invoke(PROBE.name(), "liveThreads"));
+        } catch (ExecutionControlException | RuntimeException ex) {
+            // The agent is gone, or cannot tell
+            return -1;
+        }
+    }
+
+    // Load the probe into the agent; the threads alive then are taken as
+    // the threads of the agent
+    private void loadProbe() throws ExecutionControlException {
+        control.load(new ClassBytecodes[] {PROBE});
+        probing = true;
+        agent = ProcessHandle.of(Long.parseLong(control.invoke(PROBE.name(), "pid")))
+                .filter(p -> p.info().totalCpuDuration().isPresent())
+                .orElse(null);
+    }
+
+    /**
+     * The CPU time of the session so far, in nanoseconds, or -1 if it is
+     * not available.  May be called while the agent is executing, from
+     * any thread, once {@link #cpuTime()} was called.
+     */
+    public long runningCpuTime() {
+        if (control instanceof Sampled sampled) {
+            return sampled.sampleCpuTime();
+        }
+
+        ProcessHandle process = agent;
+        return process != null ? agentCpuTime(process) : -1;
+    }
+
+    private static long agentCpuTime(ProcessHandle process) {
+        return process.info().totalCpuDuration().map(Duration::toNanos).orElse(-1L);
+    }
+
+    private static ClassBytecodes probe() {
+        String name = CpuProbe.class.getName();
+        try (InputStream in = CpuProbe.class.getResourceAsStream(
+                CpuProbe.class.getSimpleName() + ".class")) {
+            if (in == null) {
+                throw new IOException("No class file of " + name);
+            }
+            return new ClassBytecodes(name, in.readAllBytes());
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+}
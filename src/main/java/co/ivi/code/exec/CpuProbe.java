@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Loaded into an agent VM hosting a single session, to find the agent
+ * process, or to read the CPU time of the agent VM if the process cannot
+ * tell, and to count the threads left running by the snippets.  Only
+ * depends on the JDK, as the agent does not have the classes of the server.
+ */
+final class CpuProbe {
+    // The threads of the agent, alive when the probe is loaded, before any
+    // snippet of the session runs
+    private static final Set<Thread> AGENT = Thread.getAllStackTraces().keySet();
+
+    private CpuProbe() {
+    }
+
+    // Invoked by the agent
+    static long pid() {
+        return ProcessHandle.current().pid();
+    }
+
+    // Invoked by the agent, in nanoseconds
+    static long cpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean)
+                ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    // Invoked by the agent: the live threads other than the agent threads
+    // and the invoking thread
+    static int liveThreads() {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> !AGENT.contains(t) && t != Thread.currentThread())
+                .count();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.JShell;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The execution engine of the evaluators, that is where and how the
+ * snippets are executed.
+ */
+public interface Engine extends Closeable {
+    /**
+     * One agent VM per session, launched and controlled over JDI.  This is
+     * the JShell default, and isolates the sessions from each other and
+     * from the server.
+     */
+    Engine REMOTE = (builder, controls) -> builder.executionEngine(
+            observe(new RemoteExecutionProvider(), controls), Map.of());
+
+    /**
+     * Execute the snippets in the server VM, with a dedicated class loader
+     * per session.  Only suitable for trusted code, as the snippets share
+     * the server process.
+     */
+    Engine LOCAL = (builder, controls) -> builder.executionEngine(
+            observe(new LocalExecutionProvider(), controls), Map.of());
+
+    /**
+     * Compile the snippets, but do not load or run them.  Only suitable for
+     * checking snippets, not for sessions.
+     */
+    Engine ANALYSIS = (builder, controls) -> builder.executionEngine(
+            observe(new AnalysisExecutionProvider(), controls), Map.of());
+
+    /**
+     * Configure the execution engine of the JShell builder.
+     *
+     * @param builder the JShell builder
+     * @param controls the consumer of the execution controls generated for
+     *        the JShell instances built
+     * @return the builder
+     */
+    JShell.Builder configure(JShell.Builder builder,
+                             Consumer<ExecutionControl> controls);
+
+    /**
+     * Configure the execution engine of the JShell builder.
+     *
+     * @param builder the JShell builder
+     * @return the builder
+     */
+    default JShell.Builder configure(JShell.Builder builder) {
+        return configure(builder, control -> {});
+    }
+
+    /**
+     * An engine with the given options for the remote agent VMs, in
+     * addition to the options of this engine.
+     */
+    default Engine withRemoteVMOptions(String... options) {
+        if (options.length == 0) {
+            return this;
+        }
+
+        Engine engine = this;
+        return new Engine() {
+            @Override
+            public JShell.Builder configure(JShell.Builder builder,
+                                            Consumer<ExecutionControl> controls) {
+                return engine.configure(builder, controls).remoteVMOptions(options);
+            }
+
+            @Override
+            public void close() {
+                engine.close();
+            }
+        };
+    }
+
+    /**
+     * Release the resources held by the engine, if any.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * A provider passing the execution controls it generates to the
+     * consumer.
+     */
+    static ExecutionControlProvider observe(ExecutionControlProvider provider,
+                                            Consumer<ExecutionControl> controls) {
+        return new ExecutionControlProvider() {
+            @Override
+            public String name() {
+                return provider.name();
+            }
+
+            @Override
+            public Map<String, String> defaultParameters() {
+                return provider.defaultParameters();
+            }
+
+            @Override
+            public ExecutionControl generate(ExecutionEnv env,
+                    Map<String, String> parameters) throws Throwable {
+                ExecutionControl control = provider.generate(env, parameters);
+                controls.accept(control);
+                return control;
+            }
+        };
+    }
+
+    static Engine forName(String name) {
+        return switch (name) {
+            case "remote" -> REMOTE;
+            case "local" -> LOCAL;
+            default -> throw new IllegalArgumentException(
+                    "Unknown execution engine: " + name);
+        };
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.util.Map;
+
+/**
+ * In-process execution, with the system streams of the snippets routed to
+ * the output of the session.
+ */
+final class LocalExecutionProvider implements ExecutionControlProvider {
+    @Override
+    public String name() {
+        return "session-local";
+    }
+
+    @Override
+    public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters) {
+        SessionExecutionControl control = new SessionExecutionControl();
+        control.setUserOut(env.userOut());
+        control.setUserErr(env.userErr());
+        return control;
+    }
+}
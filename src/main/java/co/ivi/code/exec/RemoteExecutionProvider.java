@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.net.InetAddress;
+import java.util.Map;
+
+/**
+ * The JShell default execution: an agent VM launched and controlled over
+ * JDI, with the same fail-over as a JShell built without an engine.
+ */
+final class RemoteExecutionProvider implements ExecutionControlProvider {
+    @Override
+    public String name() {
+        return "session-remote";
+    }
+
+    @Override
+    public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters)
+            throws Throwable {
+        String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+        return ExecutionControl.generate(env,
+                "failover:0(jdi:hostname(" + loopback + ")),"
+                        + "1(jdi:launch(true)), 2(jdi)");
+    }
+}
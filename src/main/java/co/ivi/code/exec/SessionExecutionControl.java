@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.execution.LocalExecutionControl;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execute the snippets of one session in the current VM, with the system
+ * streams of the snippets routed to the output of the session.
+ * <p>
+ * Every instance has its own class loader, so the classes of a session are
+ * not visible to other sessions, and are unloaded with the session.
+ * <p>
+ * The CPU time of the threads of the snippets is accounted to the session,
+ * and reported with the {@link CpuMeter#CPU_TIME} extension command.  The
+ * threads of the snippets are the snippet threads, and the platform
+ * threads they start, which are in the thread group of the snippet thread.
+ * The threads are sampled periodically, so a thread started by a snippet
+ * is accounted up to its last sample.  Virtual threads started by the
+ * snippets are not accounted.  The threads of the snippets still alive are
+ * reported with the {@link CpuMeter#LIVE_THREADS} extension command.
+ */
+final class SessionExecutionControl extends LocalExecutionControl
+        implements CpuMeter.Sampled {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final Method METERED = metered();
+
+    // The sessions of the VM, and the sampling of their threads
+    private static final long SAMPLE_INTERVAL = 100;
+    private static final Set<SessionExecutionControl> SESSIONS = ConcurrentHashMap.newKeySet();
+
+    static {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("session-cpu-sampler").daemon().factory());
+        sampler.scheduleWithFixedDelay(
+                () -> SESSIONS.forEach(SessionExecutionControl::sampleCpuTime),
+                SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    // The session invoking a snippet, inherited by the snippet thread
+    private static final InheritableThreadLocal<SessionExecutionControl> INVOKING =
+            new InheritableThreadLocal<>();
+
+    private volatile PrintStream userOut = System.out;
+    private volatile PrintStream userErr = System.err;
+    private volatile boolean closed = false;
+
+    // The streams inherited by the threads of the snippets, which may
+    // outlive the session, as they cannot be stopped; nothing is written
+    // to the session once it is closed
+    private final PrintStream sessionOut =
+            SessionStreams.forward(() -> closed ? null : userOut, System.out);
+    private final PrintStream sessionErr =
+            SessionStreams.forward(() -> closed ? null : userErr, System.err);
+
+    private volatile Method doitMethod;
+
+    // The thread groups of the snippets, the CPU time of their threads as
+    // sampled last, by thread id, and the CPU time of the session.  A
+    // thread may be started after the snippet creating it is done, so a
+    // group is metered as long as it is reachable.
+    private final List<WeakReference<ThreadGroup>> groups = new ArrayList<>();
+    private Map<Long, Long> sampled = new HashMap<>();
+    private long cpuTime = 0;
+
+    SessionExecutionControl() {
+        SessionStreams.install();
+        SESSIONS.add(this);
+    }
+
+    void setUserOut(PrintStream userOut) {
+        this.userOut = userOut;
+    }
+
+    void setUserErr(PrintStream userErr) {
+        this.userErr = userErr;
+    }
+
+    // The snippet threads are started after entering, and inherit the streams
+    @Override
+    protected void clientCodeEnter() {
+        SessionStreams.enter(sessionOut, sessionErr);
+        super.clientCodeEnter();
+    }
+
+    @Override
+    protected void clientCodeLeave() {
+        super.clientCodeLeave();
+        SessionStreams.leave();
+    }
+
+    // The snippet thread runs the snippet through the meter
+    @Override
+    protected String invoke(Method doitMethod) throws Exception {
+        this.doitMethod = doitMethod;
+        INVOKING.set(this);
+        try {
+            return super.invoke(METERED);
+        } finally {
+            INVOKING.remove();
+        }
+    }
+
+    @Override
+    public Object extensionCommand(String command, Object arg)
+            throws RunException, EngineTerminationException, InternalException {
+        if (CpuMeter.CPU_TIME.equals(command)) {
+            return sampleCpuTime();
+        }
+        if (CpuMeter.LIVE_THREADS.equals(command)) {
+            return liveThreads();
+        }
+        return super.extensionCommand(command, arg);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        SESSIONS.remove(this);
+        super.close();
+    }
+
+    /**
+     * Account the CPU time of the threads of the snippets since sampled
+     * last, while the snippets run or not.
+     *
+     * @return the CPU time of the session, in nanoseconds
+     */
+    @Override
+    public synchronized long sampleCpuTime() {
+        Map<Long, Long> sampling = new HashMap<>();
+        for (Iterator<WeakReference<ThreadGroup>> it = groups.iterator(); it.hasNext(); ) {
+            ThreadGroup group = it.next().get();
+            if (group == null) {
+                it.remove();
+                continue;
+            }
+
+            Thread[] threads;
+            int count;
+            do {
+                threads = new Thread[group.activeCount() + 4];
+                count = group.enumerate(threads);
+            } while (count == threads.length);
+            for (int i = 0; i < count; i++) {
+                account(sampling, threads[i].threadId(),
+                        THREADS.getThreadCpuTime(threads[i].threadId()));
+            }
+        }
+
+        // The threads gone since are not sampled any more
+        sampled = sampling;
+        return cpuTime;
+    }
+
+    // The live threads of the snippet thread groups
+    private synchronized int liveThreads() {
+        int live = 0;
+        for (WeakReference<ThreadGroup> reference : groups) {
+            ThreadGroup group = reference.get();
+            if (group != null) {
+                live += group.activeCount();
+            }
+        }
+        return live;
+    }
+
+    // Account the CPU time of the thread since sampled last
+    private void account(Map<Long, Long> sampling, long threadId, long time) {
+        if (time < 0) {
+            return;
+        }
+        Long last = sampled.get(threadId);
+        cpuTime += Math.max(0, time - (last != null ? last : 0));
+        sampling.put(threadId, time);
+    }
+
+    // Run the snippet on the snippet thread, in a thread group metered for
+    // the session; the exceptions of the snippet are passed on as is
+    private static Object meter() throws Throwable {
+        SessionExecutionControl control = INVOKING.get();
+        synchronized (control) {
+            control.groups.add(new WeakReference<>(Thread.currentThread().getThreadGroup()));
+        }
+        try {
+            return control.doitMethod.invoke(null);
+        } catch (InvocationTargetException ite) {
+            throw ite.getCause();
+        } finally {
+            // Up to the end of the snippet thread
+            synchronized (control) {
+                control.account(control.sampled, Thread.currentThread().threadId(),
+                        THREADS.getCurrentThreadCpuTime());
+            }
+        }
+    }
+
+    private static Method metered() {
+        try {
+            Method method = SessionExecutionControl.class.getDeclaredMethod("meter");
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+}
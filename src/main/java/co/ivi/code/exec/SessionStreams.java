@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+/**
+ * Route System.out and System.err of in-process snippets to the output of
+ * their session.
+ * <p>
+ * The session streams are inheritable thread locals, so the threads that
+ * execute a snippet, and the threads the snippet starts, write to the
+ * session that was current when they were created.  Other threads write
+ * to the original system streams.
+ */
+final class SessionStreams {
+    private static final InheritableThreadLocal<PrintStream> out = new InheritableThreadLocal<>();
+    private static final InheritableThreadLocal<PrintStream> err = new InheritableThreadLocal<>();
+
+    private static boolean installed = false;
+
+    private SessionStreams() {
+        // blank
+    }
+
+    static synchronized void install() {
+        if (!installed) {
+            System.setOut(route(out, System.out));
+            System.setErr(route(err, System.err));
+            installed = true;
+        }
+    }
+
+    static void enter(PrintStream userOut, PrintStream userErr) {
+        out.set(userOut);
+        err.set(userErr);
+    }
+
+    static void leave() {
+        out.remove();
+        err.remove();
+    }
+
+    /**
+     * A stream writing to the current target, or dropping the output if
+     * there is no target.
+     */
+    static PrintStream forward(Supplier<PrintStream> target, PrintStream system) {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                PrintStream ps = target.get();
+                if (ps != null) {
+                    ps.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                PrintStream ps = target.get();
+                if (ps != null) {
+                    ps.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() {
+                PrintStream ps = target.get();
+                if (ps != null) {
+                    ps.flush();
+                }
+            }
+        }, true, system.charset());
+    }
+
+    private static PrintStream route(
+            InheritableThreadLocal<PrintStream> session, PrintStream system) {
+        return forward(() -> {
+            PrintStream ps = session.get();
+            return ps != null ? ps : system;
+        }, system);
+    }
+}
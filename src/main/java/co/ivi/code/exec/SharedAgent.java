@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.execution.Util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The main class of a shared agent VM, which hosts the snippets of many
+ * sessions, one class loader per session.
+ * <p>
+ * The agent reads a secret from its standard input, and listens on a
+ * loopback port, printed on the standard output at start-up.  Every
+ * connection starts with the secret, or is dropped, then a command and a
+ * session key:
+ * {@code session} serves the execution control of a new session on the
+ * connection, {@code stop} stops the running snippet of the session, and
+ * {@code cpu} replies with the CPU time of the session, or -1 if there is
+ * no such session.
+ * The agent exits when its standard input is closed, that is when the
+ * server exits.
+ */
+public final class SharedAgent {
+    static final String SESSION = "session";
+    static final String STOP = "stop";
+    static final String CPU = "cpu";
+
+    private static final Map<String, SessionExecutionControl> sessions =
+            new ConcurrentHashMap<>();
+
+    private static volatile boolean exiting = false;
+
+    private SharedAgent() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        InputStream server = System.in;
+        PrintStream console = System.out;
+        System.setIn(InputStream.nullInputStream());
+        byte[] secret = new DataInputStream(server).readUTF()
+                .getBytes(StandardCharsets.UTF_8);
+        guardExit();
+
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        console.println(listener.getLocalPort());
+        console.flush();
+
+        Thread.ofPlatform().name("agent-watchdog").daemon().start(() -> {
+            try {
+                server.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException ioe) {
+                // the server is gone
+            }
+            exiting = true;
+            Runtime.getRuntime().halt(0);
+        });
+
+        while (true) {
+            Socket socket = listener.accept();
+            Thread.ofPlatform().name("agent-session").daemon().start(
+                    () -> serve(socket, secret));
+        }
+    }
+
+    private static void serve(Socket socket, byte[] secret) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            // Any local process may connect to the port
+            if (!MessageDigest.isEqual(secret,
+                    in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                return;
+            }
+            String command = in.readUTF();
+            String key = in.readUTF();
+            switch (command) {
+                case SESSION -> {
+                    SessionExecutionControl control = new SessionExecutionControl();
+                    sessions.put(key, control);
+                    try {
+                        Util.forwardExecutionControlAndIO(control,
+                                in, socket.getOutputStream(),
+                                Map.of("out", st -> control.setUserOut(new PrintStream(st, true)),
+                                       "err", st -> control.setUserErr(new PrintStream(st, true))),
+                                Map.of());
+                    } finally {
+                        sessions.remove(key, control);
+                    }
+                }
+                case STOP -> {
+                    SessionExecutionControl control = sessions.get(key);
+                    if (control != null) {
+                        control.stop();
+                    }
+                }
+                case CPU -> {
+                    SessionExecutionControl control = sessions.get(key);
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeLong(control != null ? control.sampleCpuTime() : -1);
+                    out.flush();
+                }
+                default -> {
+                    // unknown command, drop the connection
+                }
+            }
+        } catch (Exception ex) {
+            // the session is closed, or the server is gone
+        }
+    }
+
+    // A snippet must not stop the VM shared with other sessions
+    @SuppressWarnings("removal")
+    private static void guardExit() {
+        try {
+            System.setSecurityManager(new SecurityManager() {
+                @Override
+                public void checkExit(int status) {
+                    if (!exiting) {
+                        throw new SecurityException(
+                                "System.exit() is not allowed in a shared agent");
+                    }
+                }
+
+                @Override
+                public void checkPermission(Permission perm) {
+                }
+
+                @Override
+                public void checkPermission(Permission perm, Object context) {
+                }
+            });
+        } catch (UnsupportedOperationException uoe) {
+            // the security manager is not allowed in this VM
+        }
+    }
+}
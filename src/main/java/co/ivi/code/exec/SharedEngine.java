@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.JShell;
+import jdk.jshell.execution.StreamingExecutionControl;
+import jdk.jshell.execution.Util;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Execute the snippets in a fixed set of long-lived agent VMs, each of
+ * them hosting many sessions with a class loader per session.  A new
+ * session is attached to the agent hosting the fewest sessions.
+ * <p>
+ * The agents are launched on first use, and relaunched if they exit.  As
+ * the agents are shared, the remote VM options of a session are ignored.
+ */
+public final class SharedEngine implements Engine {
+    // The launcher of the Spring Boot executable jar
+    private static final String BOOT_LAUNCHER =
+            "org.springframework.boot.loader.launch.PropertiesLauncher";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // The time limit of reading the CPU time of a session, in milliseconds
+    private static final int CPU_TIMEOUT = 1000;
+
+    private final List<Agent> agents = new ArrayList<>();
+    private final List<String> vmOptions;
+
+    public SharedEngine(int count, List<String> vmOptions) {
+        this.vmOptions = List.copyOf(vmOptions);
+        for (int i = 0; i < Math.max(1, count); i++) {
+            agents.add(new Agent());
+        }
+    }
+
+    @Override
+    public JShell.Builder configure(JShell.Builder builder,
+                                    Consumer<ExecutionControl> controls) {
+        return builder.executionEngine(
+                Engine.observe(new Provider(), controls), Map.of());
+    }
+
+    /**
+     * The number of sessions attached to each agent.
+     */
+    public int[] load() {
+        return agents.stream().mapToInt(a -> a.sessions.get()).toArray();
+    }
+
+    @Override
+    public void close() {
+        agents.forEach(Agent::destroy);
+    }
+
+    private List<String> command() {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Djava.security.manager=allow");
+        command.addAll(vmOptions);
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+
+        // Classes packed in the executable jar are loaded by its launcher
+        String location = SharedAgent.class.getProtectionDomain()
+                .getCodeSource().getLocation().getProtocol();
+        if ("file".equals(location)) {
+            command.add(SharedAgent.class.getName());
+        } else {
+            command.add("-Dloader.main=" + SharedAgent.class.getName());
+            command.add(BOOT_LAUNCHER);
+        }
+
+        return command;
+    }
+
+    private final class Provider implements ExecutionControlProvider {
+        @Override
+        public String name() {
+            return "session-shared";
+        }
+
+        @Override
+        public ExecutionControl generate(ExecutionEnv env,
+                Map<String, String> parameters) throws Throwable {
+            Agent agent = agents.stream()
+                    .min(Comparator.comparingInt(a -> a.sessions.get()))
+                    .orElseThrow();
+            return agent.attach(env);
+        }
+    }
+
+    private final class Agent {
+        private final AtomicInteger sessions = new AtomicInteger();
+        private Process process;
+        private int port;
+        // The secret of the connections to the agent, new for every launch
+        private String secret;
+
+        // Not synchronized, the agent may be launched on a virtual thread
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private int port() throws IOException {
+            lock.lock();
+            try {
+                if (process == null || !process.isAlive()) {
+                    launch();
+                }
+                return port;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void launch() throws IOException {
+            byte[] bytes = new byte[32];
+            RANDOM.nextBytes(bytes);
+            secret = Base64.getEncoder().encodeToString(bytes);
+
+            process = new ProcessBuilder(command())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+
+            // Passed on the standard input, which is kept open; not on the
+            // command line, which other processes can read
+            DataOutputStream control = new DataOutputStream(process.getOutputStream());
+            control.writeUTF(secret);
+            control.flush();
+
+            BufferedReader reader = process.inputReader();
+            String line = reader.readLine();
+            if (line == null) {
+                process.destroyForcibly();
+                throw new IOException("Shared agent failed to start");
+            }
+            port = Integer.parseInt(line.trim());
+
+            // Stray output of the agent, which is not routed to any session
+            Thread.ofVirtual().name("agent-output").start(() -> {
+                try {
+                    reader.transferTo(Writer.nullWriter());
+                } catch (IOException ioe) {
+                    // the agent is gone
+                }
+            });
+        }
+
+        private void destroy() {
+            lock.lock();
+            try {
+                if (process != null) {
+                    process.destroyForcibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Connect to the agent process, launched if there is none, or to
+        // the given process only, and null if it is gone
+        private Socket connect(String command, String key,
+                               Process expected) throws IOException {
+            int port;
+            String secret;
+            lock.lock();
+            try {
+                if (expected != null &&
+                        (expected != process || !expected.isAlive())) {
+                    return null;
+                }
+                port = port();
+                secret = this.secret;
+            } finally {
+                lock.unlock();
+            }
+
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(secret);
+            out.writeUTF(command);
+            out.writeUTF(key);
+            out.flush();
+            return socket;
+        }
+
+        private ExecutionControl attach(ExecutionEnv env) throws IOException {
+            String key = UUID.randomUUID().toString();
+            Socket socket = connect(SharedAgent.SESSION, key, null);
+            Process process;
+            lock.lock();
+            try {
+                process = this.process;
+            } finally {
+                lock.unlock();
+            }
+            sessions.incrementAndGet();
+            try {
+                return Util.remoteInputOutput(
+                        socket.getInputStream(), socket.getOutputStream(),
+                        Map.of("out", env.userOut(), "err", env.userErr()), Map.of(),
+                        (in, out) -> new SharedExecutionControl(out, in, key, socket, process));
+            } catch (IOException | RuntimeException ex) {
+                sessions.decrementAndGet();
+                socket.close();
+                throw ex;
+            }
+        }
+
+        private final class SharedExecutionControl extends StreamingExecutionControl
+                implements CpuMeter.Sampled {
+            private final String key;
+            private final Socket socket;
+            // The agent process hosting the session
+            private final Process process;
+            private boolean closed = false;
+
+            SharedExecutionControl(ObjectOutput out, ObjectInput in,
+                                   String key, Socket socket, Process process) {
+                super(out, in);
+                this.key = key;
+                this.socket = socket;
+                this.process = process;
+            }
+
+            // The session connection is busy with the running snippet.
+            // Nothing is running once the agent of the session is gone,
+            // and no agent is launched to stop it.
+            @Override
+            public void stop() throws EngineTerminationException {
+                try (Socket ignored = connect(SharedAgent.STOP, key, process)) {
+                    if (ignored != null) {
+                        ignored.getInputStream().read();
+                    }
+                } catch (IOException ioe) {
+                    throw new EngineTerminationException("Shared agent stop failed: " + ioe);
+                }
+            }
+
+            // Read over a connection of its own, as the session connection
+            // may be busy with the running snippet
+            @Override
+            public long sampleCpuTime() {
+                try (Socket socket = connect(SharedAgent.CPU, key, process)) {
+                    if (socket == null) {
+                        return -1;
+                    }
+                    socket.setSoTimeout(CPU_TIMEOUT);
+                    return new DataInputStream(socket.getInputStream()).readLong();
+                } catch (IOException ioe) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public synchronized void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    sessions.decrementAndGet();
+                    try {
+                        socket.close();
+                    } catch (IOException ioe) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code.exec;
+
+import jdk.jshell.JShell;
+import jdk.jshell.execution.StreamingExecutionControl;
+import jdk.jshell.execution.Util;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Train the class data sharing archive of the agent VM: the agent is the
+ * JShell remote agent, as with {@link Engine#REMOTE}, and dumps the
+ * classes it loaded to the archive when it exits.
+ * <p>
+ * The archive cannot be dumped with the JDWP agent the remote engine uses,
+ * so the agent is connected over a plain socket instead.  The archive of
+ * the classes of the JDK applies to the agents of the remote engine all
+ * the same.
+ */
+public final class TrainingEngine implements Engine {
+    // Time to wait for the agent to connect, or to dump the archive
+    private static final long TIMEOUT = 60;
+
+    private final Path archive;
+
+    public TrainingEngine(Path archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public JShell.Builder configure(JShell.Builder builder,
+                                    Consumer<ExecutionControl> controls) {
+        return builder.executionEngine(
+                Engine.observe(new Provider(), controls), Map.of());
+    }
+
+    private final class Provider implements ExecutionControlProvider {
+        @Override
+        public String name() {
+            return "training";
+        }
+
+        @Override
+        public ExecutionControl generate(ExecutionEnv env,
+                Map<String, String> parameters) throws Throwable {
+            Process process;
+            Socket socket;
+            try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                listener.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT));
+                process = new ProcessBuilder(
+                        Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-XX:ArchiveClassesAtExit=" + archive,
+                        "-Djdk.console=java.base",
+                        "jdk.jshell.execution.RemoteExecutionControl",
+                        String.valueOf(listener.getLocalPort()))
+                        .inheritIO()
+                        .start();
+                socket = listener.accept();
+            }
+
+            return Util.remoteInputOutput(
+                    socket.getInputStream(), socket.getOutputStream(),
+                    Map.of("out", env.userOut(), "err", env.userErr()), Map.of(),
+                    (in, out) -> new StreamingExecutionControl(out, in) {
+                        // The agent exits, and dumps the archive, once
+                        // its connection is closed
+                        @Override
+                        public void close() {
+                            super.close();
+                            try {
+                                socket.close();
+                                process.waitFor(TIMEOUT, TimeUnit.SECONDS);
+                            } catch (IOException | InterruptedException ex) {
+                                process.destroyForcibly();
+                            }
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.admission.max-concurrent=1",
+        "code.admission.max-queued=1",
+        "code.admission.queue-timeout=1s",
+        "code.admission.retry-after=3s"})
+public class AdmissionTest {
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    @Autowired
+    private Controller controller;
+
+    @Test
+    void queueFullRejected() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            Future<Boolean> first = executor.submit(() -> admissionControl.admit(() -> {
+                running.countDown();
+                await(release);
+                return true;
+            }));
+            running.await();
+            Future<Boolean> second = executor.submit(() -> admissionControl.admit(() -> true));
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            // One running, one queued: the queue is full
+            AdmissionControl.RejectedException ex = assertThrows(
+                    AdmissionControl.RejectedException.class,
+                    () -> admissionControl.admit(() -> true));
+            ResponseEntity<EvaluationResult> response = controller.rejected(ex);
+            System.out.println(response.getBody().message());
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+            assertEquals("3", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+            release.countDown();
+            assertTrue(first.get());
+            assertTrue(second.get());
+        }
+    }
+
+    @Test
+    void queueTimeoutRejected() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<Boolean> first = executor.submit(() -> admissionControl.admit(() -> {
+                running.countDown();
+                await(release);
+                return true;
+            }));
+            running.await();
+
+            assertThrows(AdmissionControl.RejectedException.class,
+                    () -> admissionControl.admit(() -> true));
+
+            release.countDown();
+            assertTrue(first.get());
+            assertTrue(admissionControl.admit(() -> true));
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
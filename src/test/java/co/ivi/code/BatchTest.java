@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.batch.parallelism=3",
+        "code.batch.max-sources=8"})
+public class BatchTest {
+    @Autowired
+    private Controller controller;
+
+    @Test
+    void resultsInOrder() {
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sources.add("int x = " + i + ";\nx * x");
+        }
+        sources.set(5, "foo();");
+
+        List<EvaluationResult> results =
+                controller.evaluateBatch(new BatchRequest(sources)).join();
+        assertEquals(8, results.size());
+        for (int i = 0; i < 8; i++) {
+            System.out.println(results.get(i).message());
+            if (i == 5) {
+                assertFalse(results.get(i).status());
+            } else {
+                assertTrue(results.get(i).status());
+                assertTrue(results.get(i).message().contains("==> " + i * i));
+            }
+        }
+    }
+
+    @Test
+    void sourcesIsolated() {
+        List<EvaluationResult> results = controller.evaluateBatch(
+                new BatchRequest(List.of("int y = 1;", "y"))).join();
+        assertTrue(results.get(0).status());
+        assertFalse(results.get(1).status());
+    }
+
+    @Test
+    void tooManySources() {
+        assertThrows(BatchEvaluation.TooLargeException.class, () ->
+                controller.evaluateBatch(new BatchRequest(Collections.nCopies(9, "1"))));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.cache.ttl=3s",
+        "code.evaluator.cpu.request-budget=1s"})
+public class CacheTest {
+    @Autowired
+    private Controller controller;
+
+    @Autowired
+    private Service service;
+
+    private EvaluationResult evaluate(String code, boolean cacheable) {
+        return controller.evaluateOnce(new EvaluationRequest(code, cacheable)).join();
+    }
+
+    @Test
+    void cachedResultReused() throws InterruptedException {
+        // The result differs from run to run, unless cached
+        String code = "System.nanoTime()";
+        EvaluationResult first = evaluate(code, true);
+        System.out.println(first.message());
+        assertTrue(first.status());
+        assertEquals(first, evaluate(code, true));
+        assertNotEquals(first, evaluate(code, false));
+
+        // Expired after the time to live
+        Thread.sleep(3500);
+        assertNotEquals(first, evaluate(code, true));
+    }
+
+    @Test
+    void batchCached() {
+        String code = "new Object().hashCode()";
+        EvaluationResult first = evaluate(code, true);
+        List<EvaluationResult> results = controller.evaluateBatch(
+                new BatchRequest(List.of(code, "1 + 1"), true)).join();
+        assertEquals(first, results.get(0));
+        assertTrue(results.get(1).message().contains("==> 2"));
+    }
+
+    @Test
+    void budgetStoppedNotCached() {
+        // Stopped by the CPU budget, with nothing left to skip
+        String code = "while (true) {}";
+        EvaluationResult er = evaluate(code, true);
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertFalse(er.timedOut());
+        assertTrue(er.skipped().isEmpty());
+        assertTrue(er.cutShort());
+        assertNull(service.cachedResult(code));
+    }
+}
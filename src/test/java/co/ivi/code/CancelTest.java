@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class CancelTest {
+    @Autowired
+    private Service service;
+
+    @Test
+    void runningCancelled() throws Exception {
+        String sessionID = "cancel-running";
+        service.evaluateCode("int a = 1;", sessionID);
+
+        Listener listener = new Listener(true);
+        CompletableFuture<EvaluationResult> future = CompletableFuture.supplyAsync(
+                () -> service.evaluateCode("while (true) {}\nint b = 2;\n/vars", sessionID, listener));
+        Thread.sleep(1000);
+        service.cancel(sessionID, listener);
+
+        EvaluationResult er = future.join();
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertTrue(er.message().contains("cancelled"));
+        assertTrue(er.skipped().contains("/vars"));
+
+        // The next evaluation is not cancelled
+        er = service.evaluateCode("a + 1", sessionID);
+        assertTrue(er.status());
+        assertTrue(er.message().contains("==> 2"));
+        service.evaluateCode("/exit", sessionID);
+    }
+
+    @Test
+    void queuedCancelSkipped() {
+        String sessionID = "cancel-queued";
+        // Cancelled before it holds the evaluator
+        EvaluationResult er = service.evaluateCode("int a = 1;\n/vars", sessionID,
+                new Listener(false));
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertTrue(er.message().contains("cancelled"));
+        assertTrue(er.skipped().contains("/vars"));
+
+        er = service.evaluateCode("/vars", sessionID);
+        assertFalse(er.message().contains("int a"));
+        service.evaluateCode("/exit", sessionID);
+    }
+
+    @Test
+    void otherEvaluationNotCancelled() throws Exception {
+        String sessionID = "cancel-other";
+        CompletableFuture<EvaluationResult> future = CompletableFuture.supplyAsync(
+                () -> service.evaluateCode("Thread.sleep(2000);\nint b = 2;", sessionID));
+        Thread.sleep(1000);
+        // The cancel of another submission of the session
+        service.cancel(sessionID, new Listener(true));
+
+        EvaluationResult er = future.join();
+        assertTrue(er.status());
+        assertTrue(er.message().contains("b ==> 2"));
+        service.evaluateCode("/exit", sessionID);
+    }
+
+    private record Listener(boolean start) implements EvaluationListener {
+        @Override
+        public void output(String text) {
+        }
+
+        @Override
+        public void snippet(String id, String status, String text) {
+        }
+
+        @Override
+        public boolean started() {
+            return start;
+        }
+    }
+}
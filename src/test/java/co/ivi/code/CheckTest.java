@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class CheckTest {
+    @Autowired
+    private Controller controller;
+
+    private CheckResult check(String code) {
+        CheckResult result = controller.check(new EvaluationRequest(code));
+        System.out.println(result);
+        return result;
+    }
+
+    @Test
+    void errorLocated() {
+        CheckResult result = check("int a = 1;\n/vars\nint b = \"no\";");
+        assertTrue(result.complete());
+        assertEquals(1, result.diagnostics().size());
+
+        CheckResult.Diagnostic diagnostic = result.diagnostics().getFirst();
+        assertEquals("error", diagnostic.severity());
+        assertEquals(3, diagnostic.line());
+        assertEquals(9, diagnostic.column());
+        assertTrue(diagnostic.message().contains("incompatible types"));
+    }
+
+    @Test
+    void incompleteReported() {
+        CheckResult result = check("int a = 1;\nvoid f() {");
+        assertFalse(result.complete());
+        assertEquals(2, result.diagnostics().getFirst().line());
+    }
+
+    @Test
+    void nothingRun() {
+        // Checked, not run: the server is still there to check again
+        CheckResult result = check("System.exit(0);\nwhile (true) {}");
+        assertTrue(result.complete());
+        assertTrue(result.diagnostics().isEmpty());
+
+        // And no declaration of a check is seen by the next one
+        check("int a = 1;");
+        result = check("a + 1");
+        assertEquals("error", result.diagnostics().getFirst().severity());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class ControllerTest {
+    @Autowired
+    private Controller controller;
+
+    private EvaluationResult evaluate(String code, HttpSession session) {
+        return controller.evaluate(new EvaluationRequest(code), session).join();
+    }
+
+    @Test
+    void asyncEvaluate() {
+        HttpSession session = session("controller-async");
+        EvaluationResult er = evaluate("int i = 0;", session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("i ==> 0"));
+        evaluate("/exit", session);
+    }
+
+    @Test
+    void asyncSerialized() {
+        HttpSession session = session("controller-serialized");
+        evaluate("int i = 0;", session);
+
+        List<CompletableFuture<EvaluationResult>> futures = new ArrayList<>();
+        for (int n = 0; n < 8; n++) {
+            futures.add(controller.evaluate(new EvaluationRequest("i++;"), session));
+        }
+        futures.forEach(future -> assertTrue(future.join().status()));
+
+        EvaluationResult er = evaluate("/vars", session);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("int i = 8"));
+        evaluate("/exit", session);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.evaluator.cpu.request-budget=1s",
+        "code.evaluator.cpu.budget=2s",
+        "code.evaluator.cpu.budget-window=10m"})
+public class CpuBudgetTest {
+    // Burn the CPU time, whatever the load of the machine
+    private static final String BURN = """
+            long burn(long millis) {
+                var threads = java.lang.management.ManagementFactory.getThreadMXBean();
+                long end = threads.getCurrentThreadCpuTime() + millis * 1_000_000;
+                long n = 0;
+                while (threads.getCurrentThreadCpuTime() < end) n++;
+                return n;
+            }
+            """;
+
+    @Autowired
+    private Service service;
+
+    @Test
+    void requestBudgetExceeded() {
+        HttpSession session = session("cpu-request");
+        service.evaluateCode(BURN, session);
+        EvaluationResult er = service.evaluateCode(
+                "burn(3000);\nint a = 1;\n/vars", session);
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertFalse(er.timedOut());
+        assertTrue(er.message().contains("CPU time budget of 1 seconds"));
+        assertEquals(2, er.skipped().size());
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void runningSnippetStopped() {
+        HttpSession session = session("cpu-running");
+        service.evaluateCode(BURN, session);
+
+        // Stopped once over the budget, long before the burn is done
+        long start = System.nanoTime();
+        EvaluationResult er = service.evaluateCode("burn(30_000);", session);
+        System.out.println(er.message());
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 10_000);
+        assertFalse(er.status());
+        assertFalse(er.timedOut());
+        assertTrue(er.message().contains("CPU time budget of 1 seconds"));
+        service.evaluateCode("/exit", session);
+
+        // The CPU time of the threads started by the snippets is accounted;
+        // in a session of its own, not throttled by the burn above
+        session = session("cpu-thread");
+        service.evaluateCode(BURN, session);
+        er = service.evaluateCode("""
+                Thread t = new Thread(() -> burn(30_000));
+                t.start();
+                t.join();
+                int a = 1;
+                """, session);
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertTrue(er.message().contains("CPU time budget of 1 seconds"));
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void sessionThrottled() {
+        HttpSession session = session("cpu-throttled");
+        service.evaluateCode(BURN, session);
+        service.evaluateCode("burn(2000);", session);
+        service.evaluateCode("burn(2000);", session);
+        service.evaluateCode("burn(2000);", session);
+
+        EvaluationResult er = service.evaluateCode("/vars\nint a = 1;", session);
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertTrue(er.message().contains("used up its CPU time budget"));
+        assertEquals(1, er.skipped().size());
+
+        // Commands are still evaluated
+        er = service.evaluateCode("/vars", session);
+        assertTrue(er.status());
+        service.evaluateCode("/exit", session);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import co.ivi.code.exec.Engine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compare the execution engines: the latency of the first evaluation of a
+ * new session, and the number of sessions that fit in one GB of memory.
+ * <p>
+ * Run from the project directory with:
+ * <pre>
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) co.ivi.code.EngineBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+    // Sessions opened for the footprint measurement
+    private static final int SESSIONS = 20;
+
+    @Param({"remote", "local"})
+    public String engine;
+
+    private Evaluator evaluator;
+
+    @Benchmark
+    public EvaluationResult firstEval() {
+        evaluator = new Evaluator(Engine.forName(engine)).start();
+        return evaluator.evaluate("int i = 0;");
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        evaluator.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String name : List.of("remote", "local")) {
+            System.out.printf("%s: %.1f sessions per GB%n",
+                    name, sessionsPerGB(Engine.forName(name)));
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(EngineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static double sessionsPerGB(Engine engine) {
+        // Do not account the one-off cost of the first session
+        new Evaluator(engine).start().close();
+
+        List<Evaluator> sessions = new ArrayList<>();
+        long before = usedMemory();
+        for (int i = 0; i < SESSIONS; i++) {
+            Evaluator ev = new Evaluator(engine).start();
+            ev.evaluate("int i = 0;");
+            sessions.add(ev);
+        }
+        long after = usedMemory();
+        sessions.forEach(Evaluator::close);
+
+        return SESSIONS * (double) (1L << 30) / Math.max(1, after - before);
+    }
+
+    // Memory used by this VM, plus the resident memory of the agent VMs
+    private static long usedMemory() {
+        System.gc();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = memory.getHeapMemoryUsage().getUsed()
+                + memory.getNonHeapMemoryUsage().getUsed();
+        return used + ProcessHandle.current().descendants()
+                .mapToLong(EngineBenchmark::residentSize)
+                .sum();
+    }
+
+    private static long residentSize(ProcessHandle process) {
+        Path status = Path.of("/proc", String.valueOf(process.pid()), "status");
+        try (Stream<String> lines = Files.lines(status)) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .mapToLong(line -> Long.parseLong(line.replaceAll("\\D", "")) * 1024)
+                    .sum();
+        } catch (IOException | RuntimeException ex) {
+            // Not available on this platform
+            return 0;
+        }
+    }
+}
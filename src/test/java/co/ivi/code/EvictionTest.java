@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.TimeUnit;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.evaluator.registry.idle-timeout=1s",
+        "code.evaluator.registry.sweep-interval=200ms",
+        "code.evaluator.registry.max-live=2"
+})
+public class EvictionTest {
+    @Autowired
+    private Service service;
+
+    @Test
+    void idleEviction() throws Exception {
+        HttpSession session = session("eviction-idle");
+        service.evaluateCode("int i = 0;", session);
+        TimeUnit.SECONDS.sleep(3);
+
+        // The evicted session is restored from its replay log
+        EvaluationResult er = service.evaluateCode("/vars", session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("session restored"));
+        assertTrue(er.message().contains("int i = 0"));
+    }
+
+    @Test
+    void capacityEviction() {
+        HttpSession first = session("eviction-first");
+        service.evaluateCode("int i = 1;", first);
+        service.evaluateCode("int i = 2;", session("eviction-second"));
+        service.evaluateCode("int i = 3;", session("eviction-third"));
+
+        EvaluationResult er = service.evaluateCode("/vars", first);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("session restored"));
+        assertTrue(er.message().contains("int i = 1"));
+    }
+
+    @Test
+    void exitNotRestored() {
+        HttpSession session = session("eviction-exit");
+        service.evaluateCode("int i = 0;", session);
+        service.evaluateCode("/exit", session);
+
+        EvaluationResult er = service.evaluateCode("/vars", session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertFalse(er.message().contains("int i = 0"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.evaluator.pool.keyed.size=1",
+        "code.evaluator.pool.keyed.min-requests=2"})
+public class KeyedPoolTest {
+    @Autowired
+    private EvaluatorPool pool;
+
+    @Test
+    void popularOptionsPooled() throws InterruptedException {
+        // Requested twice, built on demand
+        for (int i = 0; i < 2; i++) {
+            try (Evaluator evaluator = pool.take()) {
+                EvaluationResult er = evaluator.evaluate("/env --enable-preview");
+                assertTrue(er.status());
+            }
+        }
+        pool.share();
+        assertTrue(waitForKeyed("--enable-preview", 1));
+
+        // Taken over on reset, and refilled
+        try (Evaluator evaluator = pool.take()) {
+            EvaluationResult er = evaluator.evaluate("/env --enable-preview");
+            System.out.println(er.message());
+            assertTrue(er.status());
+            assertEquals(0, keyed("--enable-preview"));
+
+            er = evaluator.evaluate("/list -all");
+            assertTrue(er.message().isBlank());
+            er = evaluator.evaluate("int i = 0;");
+            assertTrue(er.message().contains("i ==> 0"));
+        }
+        assertTrue(waitForKeyed("--enable-preview", 1));
+    }
+
+    @Test
+    void rareOptionsNotPooled() {
+        try (Evaluator evaluator = pool.take()) {
+            EvaluationResult er = evaluator.evaluate("/env --add-modules java.net.http");
+            assertTrue(er.status());
+        }
+        pool.share();
+        assertEquals(0, keyed("java.net.http"));
+    }
+
+    private int keyed(String option) {
+        return pool.keyedIdle().entrySet().stream()
+                .filter(e -> e.getKey().contains(option))
+                .mapToInt(Map.Entry::getValue)
+                .sum();
+    }
+
+    private boolean waitForKeyed(String option, int count) throws InterruptedException {
+        for (int i = 0; i < 600 && keyed(option) < count; i++) {
+            Thread.sleep(100);
+        }
+        return keyed(option) == count;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class OnceTest {
+    @Autowired
+    private Controller controller;
+
+    private EvaluationResult evaluate(String code) {
+        return controller.evaluateOnce(new EvaluationRequest(code)).join();
+    }
+
+    @Test
+    void nothingRetained() {
+        EvaluationResult er = evaluate("int x = 6;\nx * 7");
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("==> 42"));
+
+        // The next evaluation starts clean
+        er = evaluate("x");
+        System.out.println(er.message());
+        assertFalse(er.status());
+
+        er = evaluate("/list");
+        assertTrue(er.status());
+        assertFalse(er.message().contains("int x"));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The loop times out before it is over the CPU request budget
+@SpringBootTest(properties = {
+        "code.evaluator.output-limit=64KB",
+        "code.evaluator.cpu.request-budget=60s"})
+public class OutputTest {
+    @Autowired
+    private Service service;
+
+    @Test
+    void outputTruncated() {
+        HttpSession session = session("output-truncated");
+        EvaluationResult er = service.evaluateCode("""
+                for (int i = 0; i < 100000; i++) System.out.println("line " + i);
+                int x = 3;
+                """, session);
+        assertTrue(er.message().length() < 65 * 1024);
+        assertTrue(er.message().contains("line 0\n"));
+        assertFalse(er.message().contains("line 99999"));
+        assertTrue(er.message().contains("output truncated"));
+
+        // The next evaluation starts with an empty buffer
+        er = service.evaluateCode("x", session);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("==> 3"));
+        assertFalse(er.message().contains("output truncated"));
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void statusNotTruncated() {
+        HttpSession session = session("output-status");
+        EvaluationResult er = service.evaluateCode("""
+                for (int i = 0; i < 100000; i++) System.out.println("line " + i);
+                while (true) {}
+                int x = 3;
+                """, session);
+        String message = er.message();
+        System.out.println(message.substring(message.indexOf("output truncated")));
+        assertTrue(er.timedOut());
+        assertTrue(message.indexOf("output truncated") < message.indexOf("timed out"));
+        assertTrue(message.contains("Skipped 1 snippets"));
+        assertTrue(message.strip().endsWith("int x = 3;"));
+        service.evaluateCode("/exit", session);
+    }
+}
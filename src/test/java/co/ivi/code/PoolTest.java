@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class PoolTest {
+    @Autowired
+    private EvaluatorPool pool;
+
+    @Test
+    void takeStarted() {
+        try (Evaluator evaluator = pool.take()) {
+            EvaluationResult er = evaluator.evaluate("int i = 0;");
+            System.out.println(er.message());
+            assertTrue(er.status());
+            assertTrue(er.message().contains("i ==> 0"));
+        }
+    }
+
+    @Test
+    void takeDistinct() {
+        try (Evaluator first = pool.take(); Evaluator second = pool.take()) {
+            assertNotSame(first, second);
+            first.evaluate("int i = 0;");
+            EvaluationResult er = second.evaluate("/vars");
+            assertTrue(er.status());
+            assertTrue(er.message().isEmpty());
+        }
+    }
+
+    @Test
+    void warmUpHidden() {
+        try (Evaluator evaluator = pool.take().warmUp("int w = 1;\n2 + 2\nrecord R() {}\n")) {
+            EvaluationResult er = evaluator.evaluate("int i = 0;\n1 + 1");
+            System.out.println(er.message());
+            assertTrue(er.message().contains("i ==> 0"));
+            assertTrue(er.message().contains("$1 ==> 2"));
+
+            er = evaluator.evaluate("/list -all");
+            System.out.println(er.message());
+            assertTrue(er.message().contains("1 : int i = 0;"));
+            assertFalse(er.message().contains("int w"));
+            assertFalse(evaluator.evaluate("/types -all").message().contains("R"));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.unit.DataSize;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.evaluator.replay.store=redis",
+        "code.evaluator.replay.ttl=10m"})
+public class RedisStoreTest {
+    private static final int PORT = freePort();
+    private static RedisServer redisServer;
+
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private EvaluatorPool pool;
+
+    @Autowired
+    private ReplayLogStore store;
+
+    @Autowired
+    private StringRedisTemplate redis;
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", () -> "localhost");
+        registry.add("spring.data.redis.port", () -> PORT);
+    }
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redisServer.stop();
+    }
+
+    private static ReplayLog log(long version, String... sources) {
+        List<ReplayLog.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            entries.add(new ReplayLog.Entry(sources[i], List.of(String.valueOf(i + 1)), null));
+        }
+        return new ReplayLog(version, Map.of(), List.of(), entries);
+    }
+
+    @Test
+    void encodeDecode() {
+        ReplayLog log = new ReplayLog(3,
+                Map.of("ADD_MODULES", List.of("--add-modules", "jdk.incubator.vector")),
+                List.of("/set feedback concise"),
+                List.of(new ReplayLog.Entry("int a = 1, b = 2;\n", List.of("1", "2"), null),
+                        new ReplayLog.Entry("a + b\n", List.of("3"), "$1")));
+        assertEquals(log, ReplayLog.decode(log.encode()));
+    }
+
+    @Test
+    void resumeOnAnotherServer() {
+        HttpSession session = session("redis-resume");
+        service.evaluateCode("int i = 42;", session);
+
+        // Another server, sharing the store, takes over the session
+        try (EvaluatorRegistry other = new EvaluatorRegistry(pool, store,
+                new SimpleMeterRegistry(), Duration.ofMinutes(30), Duration.ofSeconds(30),
+                Duration.ofSeconds(1), 200, DataSize.ofGigabytes(16), DataSize.ofMegabytes(64))) {
+            Evaluator evaluator = other.acquire("redis-resume");
+            // Still resumable by any server while this one evaluates
+            assertNotNull(store.get("redis-resume"));
+            EvaluationResult er = evaluator.evaluate("i + 1");
+            System.out.println(er.message());
+            assertTrue(er.message().contains("session restored"));
+            assertTrue(er.message().contains("43"));
+            other.evaluated("redis-resume", evaluator);
+        }
+
+        // Back to this server, the stale evaluator is replaced
+        EvaluationResult er = service.evaluateCode("/vars", session);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("int i = 42"));
+        assertTrue(er.message().contains("int $1 = 43"));
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void olderLogNotSaved() {
+        assertTrue(store.save("redis-older", log(2, "int a = 2;")));
+        assertFalse(store.save("redis-older", log(1, "int a = 1;")));
+        assertFalse(store.save("redis-older", log(2, "int a = 3;")));
+        assertEquals(log(2, "int a = 2;"), store.get("redis-older"));
+
+        // Saved with the time to live
+        long ttl = redis.getExpire(RedisReplayLogStore.KEY_PREFIX + "redis-older",
+                TimeUnit.SECONDS);
+        System.out.println("TTL " + ttl);
+        assertTrue(ttl > 0 && ttl <= Duration.ofMinutes(10).toSeconds());
+        store.remove("redis-older");
+        assertEquals(-1, store.version("redis-older"));
+    }
+
+    @Test
+    void versionAdvanced() {
+        assertTrue(store.save("redis-advance", log(1, "int a = 1;")));
+        assertTrue(store.advance("redis-advance", 1, 2));
+        assertFalse(store.advance("redis-advance", 1, 3));
+        assertEquals(2, store.version("redis-advance"));
+        assertEquals(log(2, "int a = 1;"), store.get("redis-advance"));
+        store.remove("redis-advance");
+    }
+}
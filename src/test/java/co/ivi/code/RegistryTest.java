@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class RegistryTest {
+    @Autowired
+    private Service service;
+
+    @Test
+    void sameSessionSerialized() throws Exception {
+        HttpSession session = session("registry-same");
+        service.evaluateCode("int i = 0;", session);
+
+        List<Future<EvaluationResult>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            for (int n = 0; n < 8; n++) {
+                futures.add(executor.submit(() -> service.evaluateCode("i++;", session)));
+            }
+        }
+        for (Future<EvaluationResult> future : futures) {
+            assertTrue(future.get().status());
+        }
+
+        EvaluationResult er = service.evaluateCode("/vars", session);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("int i = 8"));
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void sessionsIsolated() {
+        HttpSession first = session("registry-first");
+        HttpSession second = session("registry-second");
+        service.evaluateCode("int i = 1;", first);
+        service.evaluateCode("int i = 2;", second);
+
+        EvaluationResult er = service.evaluateCode("/vars", first);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("int i = 1"));
+        er = service.evaluateCode("/vars", second);
+        assertTrue(er.message().contains("int i = 2"));
+
+        service.evaluateCode("/exit", first);
+        service.evaluateCode("/exit", second);
+    }
+}
@@ -11,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 
+import static co.ivi.code.TestSessions.session;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -46,4 +47,51 @@ public class ResetTest {
         assertTrue(er.message().contains("Playground session terminated"));
         assertFalse(er.message().contains("i ==> 0"));
     }
+
+    @Test
+    void resetState() {
+        String code = """
+                int i = 5;
+                class C { static int n = 7; }
+                C.n = 9;
+                /reset
+                int i;
+                i;
+                /list
+                """;
+        EvaluationResult er = service.evaluateCode(code, session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("i ==> 0"));
+        assertTrue(er.message().contains("1 : int i;"));
+        assertFalse(er.message().contains("class C"));
+
+        er = service.evaluateCode("C.n", session);
+        System.out.println(er.message());
+        assertFalse(er.status());
+    }
+
+    @Test
+    void resetStopsThreads() {
+        HttpSession session = session("reset-threads");
+        String code = """
+                Thread t = new Thread(() -> { while (true) { System.out.println("tick"); try { Thread.sleep(100); } catch (InterruptedException e) { } } });
+                t.start();
+                Thread.sleep(300);
+                """;
+        EvaluationResult er = service.evaluateCode(code, session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("tick"));
+
+        er = service.evaluateCode("/reset", session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+
+        // The thread started before the reset is gone with the agent
+        er = service.evaluateCode("Thread.sleep(500);", session);
+        System.out.println(er.message());
+        assertFalse(er.message().contains("tick"));
+        service.evaluateCode("/exit", session);
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jdk.jshell.JShell;
+import jdk.jshell.SourceCodeAnalysis;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the splitting of a source into snippets by the segmenter, with
+ * the completion analysis of the remaining source, snippet after snippet.
+ * The time of the segmenter grows linearly with the lines of the source,
+ * the time of the completion loop quadratically.
+ * <p>
+ * Run from the project directory with:
+ * <pre>
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) co.ivi.code.SegmenterBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmenterBenchmark {
+    @Param({"250", "1000", "4000"})
+    public int lines;
+
+    private JShell jShell;
+    private SourceCodeAnalysis analysis;
+    private String source;
+
+    @Setup
+    public void setup() {
+        // Analysis only, no snippet is run
+        jShell = JShell.builder().executionEngine("local").build();
+        analysis = jShell.sourceCodeAnalysis();
+
+        // A mix of statements, declarations and blocks
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i += 4) {
+            sb.append("int v").append(i).append(" = ").append(i).append(" * 2;\n")
+                    .append("String s").append(i).append(" = \"a; b } c\" + v").append(i).append(";\n")
+                    .append("int f").append(i).append("(int n) { return n + 1; }\n")
+                    .append("if (v").append(i).append(" > 0) { v").append(i).append("++; } else { v")
+                    .append(i).append("--; }\n");
+        }
+        source = sb.toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        jShell.close();
+    }
+
+    @Benchmark
+    public int segmenter() {
+        SnippetSegmenter segmenter = new SnippetSegmenter(analysis, source);
+        int snippets = 0;
+        for (SourceCodeAnalysis.CompletionInfo ci = segmenter.next();
+             ci.completeness().isComplete();
+             ci = segmenter.next()) {
+            snippets++;
+        }
+        return snippets;
+    }
+
+    @Benchmark
+    public int completionLoop() {
+        int snippets = 0;
+        for (SourceCodeAnalysis.CompletionInfo ci = analysis.analyzeCompletion(source);
+             ci.completeness().isComplete();
+             ci = analysis.analyzeCompletion(ci.remaining())) {
+            snippets++;
+        }
+        return snippets;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SegmenterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
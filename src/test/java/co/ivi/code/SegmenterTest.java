@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "code.evaluator.execution=local")
+public class SegmenterTest {
+    @Autowired
+    private Service service;
+
+    @MockBean
+    private HttpSession session;
+
+    @Test
+    void statementsSplit() {
+        String code = """
+                int i = 0;
+                String s = "a; b } c";
+                if (i > 0) { i++; }
+                else { i--; }
+                do { i++; } while (i < 3);
+                try { i = i / 0; } catch (ArithmeticException e) { i = 10; }
+                new Object() { int n() { return 5; } }.n();
+                int twice(int n) { return n * 2; }
+                twice(i);
+                """;
+        EvaluationResult er = service.evaluateCode(code, session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("s ==> \"a; b } c\""));
+        assertTrue(er.message().contains("==> 5"));
+        assertTrue(er.message().contains("created method twice(int)"));
+        assertTrue(er.message().contains("==> 20"));
+        service.evaluateCode("/exit", session);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.TimeUnit;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "code.evaluator.registry.expiry-delay=100ms")
+public class SessionListenerTest {
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private SessionListener listener;
+
+    @Test
+    void sessionDestroyed() throws Exception {
+        HttpSession session = session("listener-destroyed");
+        service.evaluateCode("int i = 0;", session);
+
+        listener.sessionDestroyed(new HttpSessionEvent(session));
+        TimeUnit.SECONDS.sleep(1);
+
+        EvaluationResult er = service.evaluateCode("/vars", session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertFalse(er.message().contains("int i = 0"));
+        service.evaluateCode("/exit", session);
+    }
+}
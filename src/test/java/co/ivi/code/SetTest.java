@@ -86,4 +86,26 @@ public class SetTest {
         assertTrue(er.status());
         assertTrue(er.message().contains("Feedback mode: verbose"));
     }
+
+    @Test
+    void modesNotShared() {
+        String code = """
+                /set mode mine normal -command
+                /set format mine display "{name}!"
+                /set feedback mine
+                int i = 0;
+                """;
+        EvaluationResult er = service.evaluateCode(code, session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("i!"));
+
+        // The predefined modes are read-only, and user modes are per session
+        er = service.evaluateCode("/set format normal display \"x\"", session);
+        assertFalse(er.status());
+        er = service.evaluateCode("/set feedback mine", session);
+        assertFalse(er.status());
+        er = service.evaluateCode("int i = 0;", session);
+        assertTrue(er.message().contains("i ==> 0"));
+    }
 }
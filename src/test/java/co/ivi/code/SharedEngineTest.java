@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.evaluator.execution=shared",
+        "code.evaluator.shared.agents=1"
+})
+public class SharedEngineTest {
+    @Autowired
+    private Service service;
+
+    @Test
+    void sharedPrint() {
+        HttpSession session = session("shared-print");
+        EvaluationResult er = service.evaluateCode("""
+                System.out.println("Hello, World!");
+                """, session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertTrue(er.message().contains("Hello, World!"));
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void sharedIsolated() {
+        HttpSession first = session("shared-first");
+        HttpSession second = session("shared-second");
+        service.evaluateCode("class A { static int i = 1; }", first);
+        service.evaluateCode("class A { static int i = 2; }", second);
+
+        EvaluationResult er = service.evaluateCode("System.out.println(A.i);", first);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("1"));
+        er = service.evaluateCode("System.out.println(A.i);", second);
+        assertTrue(er.message().contains("2"));
+
+        service.evaluateCode("/exit", first);
+        service.evaluateCode("/exit", second);
+    }
+
+    @Test
+    void sharedExitDenied() {
+        HttpSession session = session("shared-exit");
+        EvaluationResult er = service.evaluateCode("System.exit(0);", session);
+        System.out.println(er.message());
+        assertFalse(er.status());
+        er = service.evaluateCode("1 + 1", session);
+        assertTrue(er.message().contains("2"));
+        service.evaluateCode("/exit", session);
+    }
+}
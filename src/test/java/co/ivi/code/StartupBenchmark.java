@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import co.ivi.code.exec.Engine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the start-up with and without the class data sharing archives
+ * of the cds build profile: the start of a session with its agent VM, and
+ * the start of the server.
+ * <p>
+ * Run from the project directory, after the archives are trained, with:
+ * <pre>
+ *   mvn -Pcds package
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) co.ivi.code.StartupBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final Path AGENT_ARCHIVE = Path.of("target", "cds", "agent.jsa");
+    private static final Path SERVER_ARCHIVE = Path.of("target", "cds", "server.jsa");
+    private static final Path SERVER_JAR = Path.of("target", "code-playground-0.0.1-SNAPSHOT.jar");
+
+    @Param({"off", "on"})
+    public String cds;
+
+    private Engine engine;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setup() {
+        if (!Files.isRegularFile(AGENT_ARCHIVE) || !Files.isRegularFile(SERVER_ARCHIVE)) {
+            throw new IllegalStateException("No archives, run: mvn -Pcds package");
+        }
+
+        engine = "on".equals(cds) ?
+                Engine.REMOTE.withRemoteVMOptions("-XX:SharedArchiveFile=" + AGENT_ARCHIVE) :
+                Engine.REMOTE;
+    }
+
+    @Benchmark
+    public EvaluationResult agentStart() {
+        evaluator = new Evaluator(engine).start();
+        return evaluator.evaluate("int i = 0;");
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        if (evaluator != null) {
+            evaluator.close();
+            evaluator = null;
+        }
+    }
+
+    // The server exits once its context is refreshed
+    @Benchmark
+    public int serverStart() throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if ("on".equals(cds)) {
+            command.add("-XX:SharedArchiveFile=" + SERVER_ARCHIVE);
+        }
+        command.addAll(List.of(
+                "-Dspring.context.exit=onRefresh",
+                "-jar", SERVER_JAR.toString(),
+                "--server.port=0",
+                "--code.evaluator.pool.size=0"));
+
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start()
+                .waitFor();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(StartupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
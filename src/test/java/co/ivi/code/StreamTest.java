@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class StreamTest {
+    @Autowired
+    private Service service;
+
+    // The events received, in order
+    private static final class Events implements EvaluationListener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void output(String text) {
+            events.add("output: " + text);
+        }
+
+        @Override
+        public void snippet(String id, String status, String text) {
+            events.add("snippet " + id + " " + status + ": " + text);
+        }
+    }
+
+    @Test
+    void outputStreamed() {
+        Events events = new Events();
+        EvaluationResult er = service.evaluateCode("""
+                int x = 1;
+                for (int i = 0; i < 3; i++) { System.out.println("tick " + i); Thread.sleep(300); }
+                /vars
+                """, "stream-output", events);
+        events.events.forEach(System.out::println);
+        assertTrue(er.status());
+        assertTrue(events.events.getFirst().startsWith("snippet 1 VALID"));
+        assertTrue(events.events.stream().anyMatch(e -> e.startsWith("output: tick 0")));
+        assertTrue(events.events.stream().anyMatch(e -> e.contains("int x = 1")));
+
+        // The output is sent once, not with the result
+        assertFalse(er.message().contains("tick"));
+        service.evaluateCode("/exit", "stream-output");
+    }
+
+    @Test
+    void slowClientBlocksNoTimeout() throws Exception {
+        // A client which does not read its stream
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EvaluationListener slow = new EvaluationListener() {
+            @Override
+            public void output(String text) {
+                stalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void snippet(String id, String status, String text) {
+                output(text);
+            }
+        };
+        CompletableFuture<EvaluationResult> blocked = CompletableFuture.supplyAsync(() ->
+                service.evaluateCode("""
+                        while (true) { System.out.println("tick"); Thread.sleep(100); }
+                        """, "stream-slow", slow));
+        assertTrue(stalled.await(10, TimeUnit.SECONDS));
+
+        // The timeouts of other sessions still fire
+        service.evaluateCode("/set timeout 1", "stream-timeout");
+        long start = System.nanoTime();
+        EvaluationResult er = service.evaluateCode("while (true) {}", "stream-timeout");
+        assertTrue(er.timedOut());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+
+        release.countDown();
+        assertTrue(blocked.get().timedOut());
+        service.evaluateCode("/exit", "stream-timeout");
+        service.evaluateCode("/exit", "stream-slow");
+    }
+
+    @Test
+    void rejectedSnippet() {
+        Events events = new Events();
+        EvaluationResult er = service.evaluateCode("foo();", "stream-rejected", events);
+        assertFalse(er.status());
+        assertEquals(1, events.events.size());
+        assertTrue(events.events.getFirst().startsWith("snippet 1 REJECTED"));
+        service.evaluateCode("/exit", "stream-rejected");
+    }
+}
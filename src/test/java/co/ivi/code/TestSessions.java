@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The HTTP sessions of the tests, known by their ids only.
+ */
+final class TestSessions {
+    private TestSessions() {
+    }
+
+    static HttpSession session(String id) {
+        HttpSession session = mock(HttpSession.class);
+        when(session.getId()).thenReturn(id);
+        return session;
+    }
+}
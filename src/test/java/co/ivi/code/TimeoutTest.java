@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2024, Xuelei Fan. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ */
+
+package co.ivi.code;
+
+import jakarta.servlet.http.HttpSession;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static co.ivi.code.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "code.evaluator.timeout=2s",
+        "code.evaluator.max-timeout=5s"})
+public class TimeoutTest {
+    @Autowired
+    private Service service;
+
+    @Test
+    void infiniteLoopStopped() {
+        HttpSession session = session("timeout-loop");
+        EvaluationResult er = service.evaluateCode(
+                "int a = 1;\nwhile (true) {}\nint b = 2;\n/vars", session);
+        System.out.println(er.message());
+        assertFalse(er.status());
+        assertTrue(er.timedOut());
+        assertTrue(er.message().contains("timed out"));
+        assertEquals(2, er.skipped().size());
+        assertEquals("/vars", er.skipped().get(1));
+
+        // The session is still usable
+        er = service.evaluateCode("a + 1", session);
+        System.out.println(er.message());
+        assertTrue(er.status());
+        assertFalse(er.timedOut());
+        assertTrue(er.message().contains("==> 2"));
+        service.evaluateCode("/exit", session);
+    }
+
+    @Test
+    void timeoutClamped() {
+        HttpSession session = session("timeout-clamped");
+        EvaluationResult er = service.evaluateCode("/set timeout 100", session);
+        System.out.println(er.message());
+        assertTrue(er.message().contains("limited to 5 seconds"));
+
+        er = service.evaluateCode("/set timeout", session);
+        assertTrue(er.message().contains("timeout is 5 seconds"));
+
+        er = service.evaluateCode("/set timeout 1", session);
+        assertTrue(er.status());
+        er = service.evaluateCode("Thread.sleep(3000);", session);
+        assertTrue(er.timedOut());
+        service.evaluateCode("/exit", session);
+    }
+}